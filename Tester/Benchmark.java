@@ -0,0 +1,146 @@
+package Tester;
+
+import graph.Node;
+import player.*;
+import scotlandyard.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Micro-benchmarks for the hot paths of the AI: move generation, cloning, evaluation,
+ * the end-of-game check and a full fixed-depth search, over a set of fixed positions.
+ * Each benchmark is warmed up first, then reports the average time and the bytes allocated
+ * per operation, measured by the JVM's per-thread allocation counter.
+ *
+ * The search runs on the given number of threads; allocation is only counted on the calling thread.
+ *
+ * Usage: java Tester.Benchmark [graph file] [seconds per benchmark] [search threads]
+ */
+public class Benchmark {
+
+    private static final int POSITIONS = 16;
+    private static final int SEARCH_DEPTH = 3;
+    private static final Colour[] DETECTIVES = {Colour.Blue, Colour.Green, Colour.Red, Colour.White, Colour.Yellow};
+
+    //Results are folded in here so the JIT can't throw the work away
+    private static long sink = 0;
+
+    private interface Operation {
+        long run(int position);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String graphFile = args.length > 0 ? args[0] : "graph.txt";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        //Every search starts cold, so a small table keeps clearing it from swamping the search itself
+        AIPlayer ai = new AIPlayer(true, null, graphFile, 1);
+        ai.setTimeLimit(3600000); //an hour - the depth limit is what stops the search
+        ai.setMaxDepth(SEARCH_DEPTH);
+        ai.setThreads(threads);
+        ai.setReuseTables(false);
+
+        //Mr X to move with Double and Secret tickets, and a detective to move, in each position
+        CustomScotlandYard[] mrXBoards = new CustomScotlandYard[POSITIONS];
+        CustomScotlandYard[] detectiveBoards = new CustomScotlandYard[POSITIONS];
+        List<List<Move>> mrXMoves = new ArrayList<>();
+        for (int i = 0; i < POSITIONS; i++) {
+            mrXBoards[i] = position(graph, i);
+            detectiveBoards[i] = position(graph, i);
+            detectiveBoards[i].setCurrentPlayer(Colour.Blue);
+            mrXMoves.add(mrXBoards[i].validMoves(Colour.Black));
+        }
+
+        System.out.println(String.format("%-40s %14s %14s", "Benchmark", "ns/op", "bytes/op"));
+        measure("validMoves (Mr X, with doubles)", seconds, p -> mrXBoards[p].validMoves(Colour.Black).size());
+        measure("validMoves (detective)", seconds, p -> detectiveBoards[p].validMoves(Colour.Blue).size());
+        measure("cloneGame", seconds, p -> ai.cloneGame(mrXBoards[p]).getRound());
+        measure("score", seconds, p -> (long) ai.score(mrXBoards[p], mrXBoards[p].getPlayerLocation(Colour.Black)));
+        measure("isGameOver (cached)", seconds, p -> mrXBoards[p].isGameOver() ? 1 : 0);
+        measure("makeMove + isGameOver + unmakeMove", seconds, p -> {
+            CustomScotlandYard board = detectiveBoards[p];
+            board.makeMove(board.validMoves(Colour.Blue).get(0));
+            boolean over = board.isGameOver();
+            board.unmakeMove();
+            return over ? 1 : 0;
+        });
+        measure("initializeMinimax (depth " + SEARCH_DEPTH + ", " + threads + " threads)", seconds, p -> ai.initializeMinimax(mrXBoards[p], mrXMoves.get(p)).hashCode());
+        if (sink == 42)
+            System.out.println();
+    }
+
+    //A start-of-game position with every player on a different node, the same every run
+    private static CustomScotlandYard position(ScotlandYardGraph graph, int seed) {
+        List<Boolean> rounds = new ArrayList<>();
+        for (int round = 0; round <= 24; round++)
+            rounds.add(round == 3 || round == 8 || round == 13 || round == 18 || round == 24);
+        CustomScotlandYard game = new CustomScotlandYard(DETECTIVES.length, rounds, graph);
+
+        List<Integer> nodes = new ArrayList<>();
+        for (Node<Integer> node : graph.getNodes())
+            nodes.add(node.getIndex());
+        Collections.sort(nodes);
+        Collections.shuffle(nodes, new Random(seed));
+
+        Map<Ticket, Integer> mrX = new HashMap<>();
+        mrX.put(Ticket.Taxi, 4);
+        mrX.put(Ticket.Bus, 3);
+        mrX.put(Ticket.Underground, 3);
+        mrX.put(Ticket.Double, 2);
+        mrX.put(Ticket.Secret, 5);
+        game.join(Colour.Black, nodes.get(0), mrX);
+        for (int i = 0; i < DETECTIVES.length; i++) {
+            Map<Ticket, Integer> tickets = new HashMap<>();
+            tickets.put(Ticket.Taxi, 11);
+            tickets.put(Ticket.Bus, 8);
+            tickets.put(Ticket.Underground, 4);
+            tickets.put(Ticket.Double, 0);
+            tickets.put(Ticket.Secret, 0);
+            game.join(DETECTIVES[i], nodes.get(i + 1), tickets);
+        }
+        return game;
+    }
+
+    private static void measure(String name, double seconds, Operation operation) {
+        long budget = (long) (seconds * 1e9);
+        //Warm up for as long as we measure, so the JIT has compiled the paths being timed
+        run(operation, budget);
+
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads == null ? 0 : threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long operations = run(operation, budget);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads == null ? -1 : threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        String bytes = allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / operations);
+        System.out.println(String.format("%-40s %14.1f %14s", name, (double) elapsed / operations, bytes));
+    }
+
+    //Runs the operation over the positions in turn until the time is up, returning how many times it ran
+    private static long run(Operation operation, long budget) {
+        long operations = 0;
+        long end = System.nanoTime() + budget;
+        do {
+            for (int position = 0; position < POSITIONS; position++)
+                sink += operation.run(position);
+            operations += POSITIONS;
+        } while (System.nanoTime() < end);
+        return operations;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported()) {
+                counter.setThreadAllocatedMemoryEnabled(true);
+                return counter;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,177 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the opening book the AI players answer the first rounds from. From each start configuration -
+ * the standard start positions, plus any number of random ones - it follows the game for the first few
+ * rounds, scoring every move in every position it reaches by a fixed-depth search, and keeps the best
+ * few moves of each position.
+ *
+ * Mr X's positions are searched as they are. A detective's position is searched in a sample of the
+ * places Mr X could be, followed by a MrXTracker exactly as the detective players follow him, and each
+ * move's score is averaged over them, so the book never uses anything the detectives couldn't know.
+ * The walk follows Mr X's best few moves and the detectives' best replies.
+ * Usage:
+ * <pre>
+ *   java Tester.BookBuilder [--graph FILE] [--out FILE] [--rounds N] [--depth N] [--moves N]
+ *                           [--branch N] [--replies N] [--worlds N] [--random N] [--seed N] [--parallel N]
+ * </pre>
+ * The book is written to the graph file name plus ".book" unless --out says otherwise, which is where
+ * AIPlayer looks for it.
+ */
+public class BookBuilder {
+
+    private static final int DEFAULT_ROUNDS = 2;  //Mr X moves the book covers
+    private static final int DEFAULT_DEPTH = 3;
+    private static final int DEFAULT_MOVES = 3;   //entries kept for each position
+    private static final int DEFAULT_BRANCH = 2;  //Mr X's moves followed from each of his positions
+    private static final int DEFAULT_REPLIES = 1; //detectives' moves followed from each of theirs
+    private static final int DEFAULT_WORLDS = 8;
+    private static final double WIN = 1000; //stands in for a won or lost world, so worlds can be averaged
+
+    private final ScotlandYardGraph graph;
+    private final int rounds;
+    private final int depth;
+    private final int moves;
+    private final int branch;
+    private final int replies;
+    private final int worlds;
+    private final Map<Long, List<OpeningBook.Entry>> positions = new ConcurrentHashMap<>();
+    private final AtomicInteger searched = new AtomicInteger();
+
+    private BookBuilder(ScotlandYardGraph graph, Map<String, String> options) {
+        this.graph = graph;
+        this.rounds = option(options, "rounds", DEFAULT_ROUNDS);
+        this.depth = option(options, "depth", DEFAULT_DEPTH);
+        this.moves = option(options, "moves", DEFAULT_MOVES);
+        this.branch = option(options, "branch", DEFAULT_BRANCH);
+        this.replies = option(options, "replies", DEFAULT_REPLIES);
+        this.worlds = option(options, "worlds", DEFAULT_WORLDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String graphFile = options.getOrDefault("graph", "graph.txt");
+        File out = new File(options.getOrDefault("out", graphFile + ".book"));
+        int random = option(options, "random", 0);
+        long seed = Long.parseLong(options.getOrDefault("seed", "0"));
+        int parallel = option(options, "parallel", Runtime.getRuntime().availableProcessors());
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        BookBuilder builder = new BookBuilder(graph, options);
+
+        List<CustomScotlandYard> starts = new ArrayList<>();
+        for (int position = 0; position < Perft.MRX_STARTS.length; position++)
+            starts.add(Perft.startPosition(graph, position));
+        Random startRandom = new Random(seed);
+        for (int i = 0; i < random; i++)
+            starts.add(Perft.randomStartPosition(graph, startRandom));
+
+        System.out.println("Building a book of " + builder.rounds + " rounds at depth " + builder.depth + " from "
+                + starts.size() + " start positions, " + parallel + " at a time");
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (CustomScotlandYard board : starts) {
+            results.add(pool.submit(() -> {
+                AIPlayer ai = new AIPlayer(true, null, graphFile);
+                ai.setOpeningBook(null);
+                builder.walk(ai, PackedState.fromGame(board), board.getRounds(), new ArrayList<>());
+                return null;
+            }));
+        }
+        int finished = 0;
+        for (Future<?> result : results) {
+            result.get();
+            System.out.println(++finished + " of " + starts.size() + " start positions done, "
+                    + builder.positions.size() + " positions in the book");
+        }
+        pool.shutdown();
+
+        List<OpeningBook.Entry> entries = new ArrayList<>();
+        for (List<OpeningBook.Entry> position : builder.positions.values())
+            entries.addAll(position);
+        OpeningBook.save(out, DistanceOracle.checksum(new File(graphFile)), builder.depth, entries);
+        System.out.println(String.format("Wrote %d positions (%d moves) to %s, %d bytes, after %d searches in %.1fs",
+                builder.positions.size(), entries.size(), out, out.length(), builder.searched.get(), (System.nanoTime() - start) / 1e9));
+    }
+
+    //Adds the position the line of moves leads to, then follows the best moves from it. The game is replayed
+    //from the start for every position, so the tracker sees the moves just as a detective's tracker would
+    private void walk(AIPlayer ai, PackedState start, List<Boolean> gameRounds, List<Move> line) {
+        CustomScotlandYard board = start.toGame(graph, gameRounds);
+        HeadlessGame game = new HeadlessGame(board);
+        MrXTracker tracker = new MrXTracker(game, CompactGraph.of(graph));
+        game.spectate(tracker);
+        for (Move move : line)
+            game.play(move);
+        Colour colour = board.getCurrentPlayer();
+        boolean mrX = colour == Colour.Black;
+        if (board.isGameOver() || (mrX && board.getRound() >= rounds))
+            return;
+
+        long key = mrX ? OpeningBook.mrXKey(board, board.getPlayerLocation(Colour.Black)) : OpeningBook.detectiveKey(game, tracker);
+        if (positions.containsKey(key))
+            return;
+        List<CustomScotlandYard> boards = new ArrayList<>();
+        if (mrX) {
+            boards.add(board);
+        } else {
+            int[] candidates = tracker.toArray();
+            Random random = new Random(key);
+            int count = Math.min(worlds, candidates.length);
+            //Partial shuffle - the first count candidates become a uniform sample
+            for (int i = 0; i < count; i++) {
+                int j = i + random.nextInt(candidates.length - i);
+                int swap = candidates[i];
+                candidates[i] = candidates[j];
+                candidates[j] = swap;
+                boards.add(PackedState.fromView(game, candidates[i]).toGame(graph, gameRounds));
+            }
+        }
+
+        MoveList generated = new MoveList();
+        board.generateMoves(colour, generated, true);
+        List<Integer> ranked = new ArrayList<>();
+        double[] scores = new double[generated.size()];
+        for (int i = 0; i < generated.size(); i++) {
+            Move move = PackedMove.toMove(generated.get(i));
+            for (CustomScotlandYard world : boards) {
+                world.makeMove(move);
+                scores[i] += Math.max(-WIN, Math.min(WIN, ai.minimax(depth, 1, world, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)));
+                world.unmakeMove();
+            }
+            scores[i] /= boards.size();
+            ranked.add(i);
+        }
+        searched.incrementAndGet();
+        //Best first - highest for Mr X, lowest for detectives - with ties in generation order
+        ranked.sort((a, b) -> mrX ? Double.compare(scores[b], scores[a]) : Double.compare(scores[a], scores[b]));
+
+        List<OpeningBook.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < Math.min(moves, ranked.size()); i++)
+            entries.add(new OpeningBook.Entry(key, generated.get(ranked.get(i)), (float) scores[ranked.get(i)]));
+        if (positions.putIfAbsent(key, entries) != null)
+            return;
+        for (int i = 0; i < Math.min(mrX ? branch : replies, ranked.size()); i++) {
+            List<Move> next = new ArrayList<>(line);
+            next.add(PackedMove.toMove(generated.get(ranked.get(i))));
+            walk(ai, start, gameRounds, next);
+        }
+    }
+
+    private static int option(Map<String, String> options, String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, "" + defaultValue));
+    }
+}
@@ -0,0 +1,114 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * Measures the EndgameSolver: for K = 1 up to the given number of rounds, solves positions K rounds
+ * before the end of the game and reports who won, how long the solves took and how much memory their
+ * tables used. The positions are reached from random start positions with Mr X moving at random and
+ * the detectives chasing him - each takes the move that brings them closest to him - so that they
+ * are close enough for the endgame to be worth solving. Usage:
+ * <pre>
+ *   java Tester.Endgame [--graph FILE] [--rounds K] [--positions N] [--threads N] [--seed N] [--time MILLISECONDS]
+ * </pre>
+ * The time limit is per position; positions that run out of time are counted but left out of the averages.
+ */
+public class Endgame {
+
+    private static final int DEFAULT_ROUNDS = 2;
+    private static final int DEFAULT_POSITIONS = 20;
+    private static final long DEFAULT_TIME_LIMIT = 60000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String graphFile = options.getOrDefault("graph", "graph.txt");
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "" + DEFAULT_ROUNDS));
+        int positions = Integer.parseInt(options.getOrDefault("positions", "" + DEFAULT_POSITIONS));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "" + Runtime.getRuntime().availableProcessors()));
+        long seed = Long.parseLong(options.getOrDefault("seed", "0"));
+        long timeLimit = Long.parseLong(options.getOrDefault("time", "" + DEFAULT_TIME_LIMIT));
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        DistanceOracle distances = DistanceOracle.forGraph(graphFile, graph);
+        EndgameSolver solver = new EndgameSolver(graph, distances);
+        solver.setThreads(threads);
+
+        System.out.println("Solving " + positions + " positions for each K up to " + rounds + " on " + threads + " thread(s), seed " + seed);
+        for (int k = 1; k <= rounds; k++) {
+            Random random = new Random(seed + k);
+            int mrXWins = 0;
+            int timedOut = 0;
+            long plies = 0;
+            long totalNanos = 0;
+            long maxNanos = 0;
+            long totalNodes = 0;
+            long totalBytes = 0;
+            long maxBytes = 0;
+            for (int i = 0; i < positions; i++) {
+                CustomScotlandYard board = position(graph, distances, k, random);
+                EndgameSolver.Result result = solver.solve(board, timeLimit);
+                if (result == null) {
+                    timedOut++;
+                    continue;
+                }
+                if (result.getWinner() == CustomScotlandYard.MRX_WINS)
+                    mrXWins++;
+                else
+                    plies += result.getDistance();
+                totalNanos += solver.getNanos();
+                maxNanos = Math.max(maxNanos, solver.getNanos());
+                totalNodes += solver.getNodes();
+                totalBytes += solver.getMemoryBytes();
+                maxBytes = Math.max(maxBytes, solver.getMemoryBytes());
+            }
+            int solved = positions - timedOut;
+            int detectiveWins = solved - mrXWins;
+            System.out.println(String.format("K=%d: %d solved, %d timed out; Mr X won %d, detectives won %d (in %.1f plies on average)",
+                    k, solved, timedOut, mrXWins, detectiveWins, detectiveWins == 0 ? 0 : (double) plies / detectiveWins));
+            if (solved > 0)
+                System.out.println(String.format("     time mean %.1fms max %.1fms, %.0f nodes on average, memory mean %.1fKB max %.1fKB",
+                        totalNanos / 1e6 / solved, maxNanos / 1e6, (double) totalNodes / solved, totalBytes / 1024.0 / solved, maxBytes / 1024.0));
+        }
+    }
+
+    //A position k rounds before the end with Mr X to move, reached from a random start with the detectives chasing Mr X
+    private static CustomScotlandYard position(ScotlandYardGraph graph, DistanceOracle distances, int k, Random random) {
+        while (true) {
+            CustomScotlandYard board = Perft.randomStartPosition(graph, random);
+            int round = board.getRounds().size() - 1 - k;
+            while (!board.isGameOver() && board.getRound() <= round) {
+                Colour colour = board.getCurrentPlayer();
+                if (board.getRound() == round && colour == Colour.Black)
+                    return board;
+                List<Move> moves = board.validMoves(colour);
+                Move move = moves.get(random.nextInt(moves.size()));
+                if (colour != Colour.Black)
+                    move = chase(board, distances, moves, move);
+                board.playMove(move);
+            }
+        }
+    }
+
+    //The detective's move that ends nearest Mr X, keeping the given move on ties
+    private static Move chase(CustomScotlandYard board, DistanceOracle distances, List<Move> moves, Move move) {
+        int mrX = board.getPlayerLocation(Colour.Black);
+        int best = move instanceof MoveTicket ? distances.distance(((MoveTicket) move).target, mrX, DistanceOracle.ALL_TRANSPORTS) : Integer.MAX_VALUE;
+        for (Move other : moves) {
+            if (!(other instanceof MoveTicket))
+                continue;
+            int distance = distances.distance(((MoveTicket) other).target, mrX, DistanceOracle.ALL_TRANSPORTS);
+            if (distance < best) {
+                best = distance;
+                move = other;
+            }
+        }
+        return move;
+    }
+}
@@ -0,0 +1,102 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compiles a graph file to the binary form the players map at start-up (see CompiledGraph), checks that
+ * the compiled graph was compiled from the graph file's contents (by checksum, which the players don't
+ * check) and matches the text one edge for edge and distance for distance, and times loading both. Usage:
+ * <pre>
+ *   java Tester.GraphCompiler [--graph FILE] [--out FILE] [--distances true|false] [--repeat N]
+ * </pre>
+ * The compiled graph is written to the graph file name plus ".bin" unless --out says otherwise, which is
+ * where the players look for it. Without distances the file is a few KB, but the players then build or
+ * load the distances separately.
+ */
+public class GraphCompiler {
+
+    private static final int DEFAULT_REPEAT = 20;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        String graphFile = options.getOrDefault("graph", "graph.txt");
+        File out = new File(options.getOrDefault("out", graphFile + ".bin"));
+        boolean withDistances = Boolean.parseBoolean(options.getOrDefault("distances", "true"));
+        int repeat = Integer.parseInt(options.getOrDefault("repeat", "" + DEFAULT_REPEAT));
+
+        long checksum = DistanceOracle.checksum(new File(graphFile));
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        DistanceOracle distances = withDistances ? DistanceOracle.build(graph) : null;
+        CompiledGraph.save(out, new File(graphFile), graph, distances);
+        System.out.println("Wrote " + out + ", " + out.length() + " bytes");
+
+        CompiledGraph compiled = CompiledGraph.load(out, checksum);
+        if (compiled == null) {
+            System.out.println(out + " doesn't match the checksum of " + graphFile);
+            System.exit(1);
+        }
+        int differences = compare(CompactGraph.build(graph), compiled.getAdjacency());
+        if (withDistances)
+            differences += compare(distances, compiled.getDistances(graphFile));
+        System.out.println(compiled + ": " + (differences == 0 ? "matches " + graphFile : differences + " differences from " + graphFile));
+
+        //Time what a player did before - parse the text, convert it and build the distances - against mapping
+        long parseNanos = Long.MAX_VALUE;
+        long loadNanos = Long.MAX_VALUE;
+        for (int i = 0; i < repeat; i++) {
+            long start = System.nanoTime();
+            ScotlandYardGraph parsed = new ScotlandYardGraphReader().readGraph(graphFile);
+            CompactGraph.build(parsed);
+            if (withDistances)
+                DistanceOracle.build(parsed);
+            parseNanos = Math.min(parseNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            CompiledGraph.load(out, new File(graphFile));
+            loadNanos = Math.min(loadNanos, System.nanoTime() - start);
+        }
+        System.out.println(String.format("Best of %d: parsing and building %.2fms, loading the compiled graph %.2fms",
+                repeat, parseNanos / 1e6, loadNanos / 1e6));
+        if (differences > 0)
+            System.exit(1);
+    }
+
+    private static int compare(CompactGraph expected, CompactGraph actual) {
+        if (expected.getSize() != actual.getSize() || expected.getEdgeCount() != actual.getEdgeCount())
+            return 1;
+        int differences = 0;
+        for (int node = 0; node < expected.getSize(); node++) {
+            if (expected.start(node) != actual.start(node) || expected.end(node) != actual.end(node))
+                differences++;
+        }
+        for (int edge = 0; edge < expected.getEdgeCount(); edge++) {
+            if (expected.target(edge) != actual.target(edge) || expected.transport(edge) != actual.transport(edge)
+                    || expected.firstWay(edge, false) != actual.firstWay(edge, false) || expected.firstWay(edge, true) != actual.firstWay(edge, true))
+                differences++;
+        }
+        return differences;
+    }
+
+    private static int compare(DistanceOracle expected, DistanceOracle actual) {
+        if (expected.getSize() != actual.getSize())
+            return 1;
+        int differences = 0;
+        for (int transports = 0; transports <= DistanceOracle.ALL_TRANSPORTS; transports++) {
+            for (int from = 0; from < expected.getSize(); from++) {
+                for (int to = 0; to < expected.getSize(); to++) {
+                    if (expected.distance(from, to, transports) != actual.distance(from, to, transports))
+                        differences++;
+                }
+            }
+        }
+        return differences;
+    }
+}
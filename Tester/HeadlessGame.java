@@ -0,0 +1,180 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * A game of Scotland Yard played out in memory, with no server: players are asked for their moves
+ * in turn, as the real ScotlandYard asks them, and the moves are played on a CustomScotlandYard.
+ * Players and spectators see the game through this class, which hides Mr X the way the real game
+ * does - his location is where he was last seen, and spectators are shown his tickets but not where
+ * they took him, except in reveal rounds.
+ */
+public class HeadlessGame implements ScotlandYardView, Receiver {
+
+    private final CustomScotlandYard board;
+    private final Map<Colour, Player> players = new EnumMap<>(Colour.class);
+    private final List<Spectator> spectators = new ArrayList<>();
+    private int lastSeen = 0; //where Mr X was last revealed, 0 if never
+    private int token = 0;
+    private Move played;
+    private int moves = 0;
+
+    /**
+     * Constructs a game from a position every player has already joined.
+     *
+     * @param board the position to play from, which the game is played on.
+     */
+    public HeadlessGame(CustomScotlandYard board) {
+        this.board = board;
+        if (board.getRounds().get(board.getRound()))
+            lastSeen = board.getPlayerLocation(Colour.Black);
+    }
+
+    public void setPlayer(Colour colour, Player player) {
+        players.put(colour, player);
+    }
+
+    public void spectate(Spectator spectator) {
+        spectators.add(spectator);
+    }
+
+    /**
+     * Plays the next move: asks the current player for a move and plays it.
+     *
+     * @return the move played.
+     * @throws IllegalStateException if the player doesn't answer, or answers with a move the game doesn't allow.
+     */
+    public Move playTurn() {
+        Colour colour = board.getCurrentPlayer();
+        Player player = players.get(colour);
+        if (player == null)
+            throw new IllegalStateException("No player for " + colour);
+        List<Move> validMoves = board.validMoves(colour);
+        //A CustomScotlandYard always knows where Mr X actually is, and so does Mr X
+        int location = board.getPlayerLocation(colour);
+
+        played = null;
+        player.notify(location, new ArrayList<>(validMoves), ++token, this);
+        Move move = played;
+        if (move == null)
+            throw new IllegalStateException(colour + " didn't play a move");
+        if (!validMoves.contains(move))
+            throw new IllegalStateException(colour + " played " + move + ", which isn't a valid move");
+        play(move);
+        return move;
+    }
+
+    /**
+     * Plays a move without asking anyone for it, and shows it to the spectators as playTurn() would.
+     * The move isn't checked, so it has to be one of the current player's valid moves.
+     *
+     * @param move the move to play.
+     */
+    public void play(Move move) {
+        board.playMove(move);
+        moves++;
+        Move shown = move.colour == Colour.Black ? reveal(move) : move;
+        for (Spectator spectator : spectators)
+            spectator.notify(shown);
+    }
+
+    //Works out what Mr X's move gives away once it has been played: each ticket's target is only shown in reveal rounds
+    private Move reveal(Move move) {
+        List<Boolean> rounds = board.getRounds();
+        int round = board.getRound();
+        if (move instanceof MoveDouble) {
+            MoveDouble moveDouble = (MoveDouble) move;
+            MoveTicket first = reveal(moveDouble.move1, revealed(rounds, round - 1));
+            MoveTicket second = reveal(moveDouble.move2, revealed(rounds, round));
+            return MoveDouble.instance(Colour.Black, first, second);
+        }
+        if (move instanceof MoveTicket)
+            return reveal((MoveTicket) move, revealed(rounds, round));
+        return move;
+    }
+
+    //A double move in the last round but one ends a round past the end of the list, which is never a reveal round
+    private static boolean revealed(List<Boolean> rounds, int round) {
+        return round < rounds.size() && rounds.get(round);
+    }
+
+    private MoveTicket reveal(MoveTicket move, boolean revealed) {
+        if (revealed)
+            lastSeen = move.target;
+        return MoveTicket.instance(Colour.Black, move.ticket, lastSeen);
+    }
+
+    @Override
+    public void playMove(Move move, Integer token) {
+        if (token != null && token == this.token)
+            played = move;
+    }
+
+    /**
+     * Returns the number of moves played so far; a double move counts as one.
+     *
+     * @return the number of moves played.
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Returns where Mr X actually is, which no player is told.
+     *
+     * @return Mr X's location.
+     */
+    public int getMrXLocation() {
+        return board.getPlayerLocation(Colour.Black);
+    }
+
+    @Override
+    public List<Colour> getPlayers() {
+        return board.getPlayers();
+    }
+
+    @Override
+    public Set<Colour> getWinningPlayers() {
+        return board.getWinningPlayers();
+    }
+
+    @Override
+    public int getPlayerLocation(Colour colour) {
+        if (colour == Colour.Black)
+            return lastSeen;
+        return board.getPlayerLocation(colour);
+    }
+
+    @Override
+    public int getPlayerTickets(Colour colour, Ticket ticket) {
+        return board.getPlayerTickets(colour, ticket);
+    }
+
+    @Override
+    public boolean isGameOver() {
+        return board.isGameOver();
+    }
+
+    @Override
+    public boolean isReady() {
+        return board.isReady();
+    }
+
+    @Override
+    public Colour getCurrentPlayer() {
+        return board.getCurrentPlayer();
+    }
+
+    @Override
+    public int getRound() {
+        return board.getRound();
+    }
+
+    @Override
+    public List<Boolean> getRounds() {
+        return board.getRounds();
+    }
+}
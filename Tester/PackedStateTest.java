@@ -0,0 +1,91 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks that PackedState keeps each player under its own colour, whichever detectives are in the game:
+ * packing a game and unpacking it gives back the same players, places, tickets and player to move, and the
+ * state's hash matches the game's through a random playout. Exits with status 1 if any check fails. Usage,
+ * from the project root:
+ * <pre>
+ *   java Tester.PackedStateTest
+ * </pre>
+ */
+public class PackedStateTest {
+
+    private static final String BOARD = "Tester/perft-board.txt";
+    private static final int PLIES = 60;
+    private static final Colour[][] GAMES = {
+            {Colour.Black, Colour.Blue, Colour.Green, Colour.Red, Colour.White, Colour.Yellow},
+            {Colour.Black, Colour.Red, Colour.Yellow},
+            {Colour.Black, Colour.Green, Colour.White},
+            {Colour.Black, Colour.Yellow},
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(BOARD);
+        Random random = new Random(1);
+        for (Colour[] colours : GAMES) {
+            CustomScotlandYard game = game(graph, colours, random);
+            String name = Arrays.toString(colours);
+            for (int ply = 0; ply < PLIES && !game.isGameOver(); ply++) {
+                PackedState state = PackedState.fromGame(game);
+                check(state.hash() == game.getHash(), name + " ply " + ply + ": hash differs from the game's");
+                compare(game, state.toGame(graph, game.getRounds()), name + " ply " + ply);
+
+                List<Move> moves = game.validMoves(game.getCurrentPlayer());
+                Move move = moves.get(random.nextInt(moves.size()));
+                PackedState next = state.play(move);
+                game.playMove(move);
+                check(next.equals(PackedState.fromGame(game)) && next.hash() == game.getHash(),
+                        name + " ply " + ply + ": playing " + move + " differs from the game");
+            }
+        }
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " check(s)");
+            System.exit(1);
+        }
+        System.out.println("OK: " + GAMES.length + " games packed and unpacked with their own colours");
+    }
+
+    //A game at its start, with Mr X and the given detectives on different start nodes
+    private static CustomScotlandYard game(ScotlandYardGraph graph, Colour[] colours, Random random) {
+        CustomScotlandYard start = Perft.randomStartPosition(graph, random);
+        CustomScotlandYard game = new CustomScotlandYard(colours.length - 1, start.getRounds(), graph);
+        List<Colour> detectives = start.getPlayers();
+        for (int i = 0; i < colours.length; i++) {
+            Map<Ticket, Integer> tickets = new HashMap<>();
+            for (Ticket ticket : PackedState.TICKETS)
+                tickets.put(ticket, start.getPlayerTickets(detectives.get(i), ticket));
+            game.join(colours[i], start.getPlayerLocation(detectives.get(i)), tickets);
+        }
+        return game;
+    }
+
+    private static void compare(CustomScotlandYard expected, CustomScotlandYard actual, String name) {
+        check(expected.getPlayers().equals(actual.getPlayers()), name + ": players " + actual.getPlayers() + ", expected " + expected.getPlayers());
+        check(expected.getCurrentPlayer() == actual.getCurrentPlayer(), name + ": " + actual.getCurrentPlayer() + " to move, expected " + expected.getCurrentPlayer());
+        check(expected.getRound() == actual.getRound(), name + ": round " + actual.getRound() + ", expected " + expected.getRound());
+        check(expected.getHash() == actual.getHash(), name + ": unpacked hash differs");
+        for (Colour colour : expected.getPlayers()) {
+            check(expected.getPlayerLocation(colour) == actual.getPlayerLocation(colour), name + ": " + colour + " has moved");
+            for (Ticket ticket : PackedState.TICKETS)
+                check(expected.getPlayerTickets(colour, ticket) == actual.getPlayerTickets(colour, ticket),
+                        name + ": " + colour + " has a different number of " + ticket + " tickets");
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            failures++;
+            if (failures <= 10)
+                System.out.println(message);
+        }
+    }
+}
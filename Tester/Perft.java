@@ -0,0 +1,258 @@
+package Tester;
+
+import player.*;
+import scotlandyard.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Counts the positions reachable in exactly N moves (or where the game ends sooner) from a set of
+ * standard start positions, to check that changes to move generation and playing moves don't change
+ * the rules. Every count is made twice - through validMoves() and makeMove(Move), and through
+ * generateMoves() and makeMove(int) - and the two have to agree.
+ *
+ * Expected counts are kept in a table file (by default the graph file name plus ".perft") along with
+ * the checksum of the graph they were counted on. Usage:
+ * <pre>
+ *   java Tester.Perft [graph file] [depth]            counts and times every position
+ *   java Tester.Perft --record [graph file] [depth]   stores the counts as the expected ones
+ *   java Tester.Perft --check [graph file] [depth]    fails (exit status 1) if a count differs from the table
+ * </pre>
+ * Tester.PerftTest checks a table kept in the project for a test board.
+ */
+public class Perft {
+
+    //Where players may start in the real game
+    static final int[] MRX_STARTS = {35, 45, 51, 71, 78, 104, 106, 127, 132, 146, 166, 170, 172};
+    static final int[] DETECTIVE_STARTS = {13, 26, 29, 34, 50, 53, 91, 94, 103, 112, 117, 138, 141, 155, 174, 197, 198};
+    static final Colour[] DETECTIVES = {Colour.Blue, Colour.Green, Colour.Red, Colour.White, Colour.Yellow};
+    private static final int DEFAULT_DEPTH = 4;
+
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean record = arguments.remove("--record");
+        boolean check = arguments.remove("--check");
+        String graphFile = arguments.size() > 0 ? arguments.get(0) : "graph.txt";
+        int depth = arguments.size() > 1 ? Integer.parseInt(arguments.get(1)) : DEFAULT_DEPTH;
+
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        long checksum = DistanceOracle.checksum(new File(graphFile));
+        File tableFile = new File(graphFile + ".perft");
+        Map<String, Long> expected = null;
+        if (check) {
+            try {
+                expected = readTable(tableFile, checksum);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        List<String> table = new ArrayList<>();
+        int failures = count(graph, depth, expected, table);
+
+        if (record) {
+            writeTable(tableFile, checksum, table);
+            System.out.println("Recorded " + table.size() + " counts in " + tableFile);
+        }
+        if (failures > 0) {
+            System.out.println(failures + " count(s) wrong");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Counts every standard start position to a depth and compares the counts with the table recorded for
+     * the graph file (the file's name plus ".perft").
+     *
+     * @param graphFile the file to read the graph from.
+     * @param depth     the deepest depth to count.
+     * @return the number of counts that differ from the table, are missing from it, or differ between the two ways of counting.
+     * @throws IOException if the graph or the table can't be read, or the table was recorded on a different graph.
+     */
+    public static int check(String graphFile, int depth) throws IOException {
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        Map<String, Long> expected = readTable(new File(graphFile + ".perft"), DistanceOracle.checksum(new File(graphFile)));
+        return count(graph, depth, expected, new ArrayList<>());
+    }
+
+    //Counts and prints every standard start position at each depth up to the given one, adding "position depth count"
+    //lines to the table. Returns the number of failures - counts that differ from the expected ones, if there are any
+    private static int count(ScotlandYardGraph graph, int depth, Map<String, Long> expected, List<String> table) {
+        boolean check = expected != null;
+        int failures = 0;
+        for (int position = 0; position < MRX_STARTS.length; position++) {
+            for (int d = 1; d <= depth; d++) {
+                CustomScotlandYard board = startPosition(graph, position);
+                long start = System.nanoTime();
+                long count = perft(board, d);
+                long elapsed = Math.max(System.nanoTime() - start, 1);
+                long fastStart = System.nanoTime();
+                long fastCount = perftPacked(board, d, new MoveList[d + 1]);
+                long fastElapsed = Math.max(System.nanoTime() - fastStart, 1);
+
+                String key = position + " " + d;
+                String result = String.format("position %2d depth %d: %12d  %10.0f nodes/s  (packed %12d  %10.0f nodes/s)",
+                        position, d, count, count * 1e9 / elapsed, fastCount, fastCount * 1e9 / fastElapsed);
+                if (count != fastCount) {
+                    result += "  MISMATCH between move lists and packed moves";
+                    failures++;
+                }
+                Long wanted = check ? expected.get(key) : null;
+                if (check && wanted == null) {
+                    result += "  FAIL, no expected count";
+                    failures++;
+                } else if (check && wanted != count) {
+                    result += "  FAIL, expected " + wanted;
+                    failures++;
+                }
+                System.out.println(result);
+                table.add(key + " " + count);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Counts the leaves of the game tree through the public move list API.
+     *
+     * @param board the position, left as it was found.
+     * @param depth the number of moves to look ahead.
+     * @return the number of positions exactly depth moves away, plus those where the game ends sooner.
+     */
+    public static long perft(CustomScotlandYard board, int depth) {
+        if (depth == 0 || board.isGameOver())
+            return 1;
+        long count = 0;
+        for (Move move : board.validMoves(board.getCurrentPlayer())) {
+            board.makeMove(move);
+            count += perft(board, depth - 1);
+            board.unmakeMove();
+        }
+        return count;
+    }
+
+    /**
+     * Counts the leaves of the game tree through packed moves, as the search generates them.
+     *
+     * @param board the position, left as it was found.
+     * @param depth the number of moves to look ahead.
+     * @param lists a move list for each ply, created as needed.
+     * @return the number of positions exactly depth moves away, plus those where the game ends sooner.
+     */
+    public static long perftPacked(CustomScotlandYard board, int depth, MoveList[] lists) {
+        if (depth == 0)
+            return 1;
+        if (lists[depth] == null)
+            lists[depth] = new MoveList();
+        MoveList moves = lists[depth];
+        board.generateMoves(board.getCurrentPlayer(), moves);
+        if (board.getStatus(moves) != CustomScotlandYard.NOT_OVER)
+            return 1;
+        long count = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            board.makeMove(moves.get(i));
+            count += perftPacked(board, depth - 1, lists);
+            board.unmakeMove();
+        }
+        return count;
+    }
+
+    /**
+     * Sets up one of the standard start positions: Mr X on one of his start nodes and the
+     * detectives on five different detective start nodes, all with the usual tickets.
+     *
+     * @param graph    the board.
+     * @param position which start position, from 0 to 12.
+     * @return the position, with Mr X to move.
+     */
+    public static CustomScotlandYard startPosition(ScotlandYardGraph graph, int position) {
+        int[] detectiveStarts = new int[DETECTIVES.length];
+        //Steps of 3 through the 17 start nodes never repeat within five detectives
+        for (int i = 0; i < DETECTIVES.length; i++)
+            detectiveStarts[i] = DETECTIVE_STARTS[(position + 3 * i) % DETECTIVE_STARTS.length];
+        return startPosition(graph, MRX_STARTS[position], detectiveStarts);
+    }
+
+    /**
+     * Sets up a game with Mr X and the detectives on different standard start nodes, drawn at random.
+     *
+     * @param graph  the board.
+     * @param random where the start nodes are drawn from.
+     * @return the position, with Mr X to move.
+     */
+    public static CustomScotlandYard randomStartPosition(ScotlandYardGraph graph, Random random) {
+        int mrXStart = MRX_STARTS[random.nextInt(MRX_STARTS.length)];
+        List<Integer> starts = new ArrayList<>();
+        for (int start : DETECTIVE_STARTS)
+            starts.add(start);
+        Collections.shuffle(starts, random);
+        int[] detectiveStarts = new int[DETECTIVES.length];
+        for (int i = 0; i < detectiveStarts.length; i++)
+            detectiveStarts[i] = starts.get(i);
+        return startPosition(graph, mrXStart, detectiveStarts);
+    }
+
+    /**
+     * Sets up a game at its start with the usual tickets and reveal rounds.
+     *
+     * @param graph           the board.
+     * @param mrXStart        where Mr X starts.
+     * @param detectiveStarts where each detective starts, in play order; there can be up to five.
+     * @return the position, with Mr X to move.
+     */
+    public static CustomScotlandYard startPosition(ScotlandYardGraph graph, int mrXStart, int[] detectiveStarts) {
+        List<Boolean> rounds = new ArrayList<>();
+        for (int round = 0; round <= 24; round++)
+            rounds.add(round == 3 || round == 8 || round == 13 || round == 18 || round == 24);
+        CustomScotlandYard game = new CustomScotlandYard(detectiveStarts.length, rounds, graph);
+
+        Map<Ticket, Integer> mrX = new HashMap<>();
+        mrX.put(Ticket.Taxi, 4);
+        mrX.put(Ticket.Bus, 3);
+        mrX.put(Ticket.Underground, 3);
+        mrX.put(Ticket.Double, 2);
+        mrX.put(Ticket.Secret, 5);
+        game.join(Colour.Black, mrXStart, mrX);
+        for (int i = 0; i < detectiveStarts.length; i++) {
+            Map<Ticket, Integer> tickets = new HashMap<>();
+            tickets.put(Ticket.Taxi, 11);
+            tickets.put(Ticket.Bus, 8);
+            tickets.put(Ticket.Underground, 4);
+            tickets.put(Ticket.Double, 0);
+            tickets.put(Ticket.Secret, 0);
+            game.join(DETECTIVES[i], detectiveStarts[i], tickets);
+        }
+        return game;
+    }
+
+    //The table is the graph's checksum, then a "position depth count" line for each count. Lines starting with # are comments
+    private static Map<String, Long> readTable(File file, long checksum) throws IOException {
+        Map<String, Long> table = new HashMap<>();
+        if (!file.isFile())
+            throw new FileNotFoundException("No expected counts in " + file + " - record them with --record");
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();
+            while (line != null && line.startsWith("#"))
+                line = in.readLine();
+            if (line == null || Long.parseLong(line.trim()) != checksum)
+                throw new IOException(file + " was recorded on a different graph - record it again with --record");
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("#"))
+                    continue;
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 3)
+                    table.put(parts[0] + " " + parts[1], Long.parseLong(parts[2]));
+            }
+        }
+        return table;
+    }
+
+    private static void writeTable(File file, long checksum, List<String> table) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println(checksum);
+            for (String line : table)
+                out.println(line);
+        }
+    }
+}
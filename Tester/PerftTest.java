@@ -0,0 +1,33 @@
+package Tester;
+
+import java.io.IOException;
+
+/**
+ * The regression test for move generation: counts the standard start positions of a test board with
+ * Perft and fails (exit status 1) if any count differs from the table kept with the board.
+ *
+ * The board, perft-board.txt, has the game's 199 nodes and start nodes but edges of its own, so the test
+ * doesn't depend on the framework's graph.txt. The expected counts in perft-board.txt.perft were recorded
+ * on the original validMoves() and isGameOver(), before moves were packed, counting each distinct move
+ * once - the original listed some moves twice (a Secret ticket along each of several edges to a node).
+ * They must never be recorded again from the code being tested. Usage, from the project root:
+ * <pre>
+ *   java Tester.PerftTest [depth]
+ * </pre>
+ * Depth 6, a whole round, is the deepest in the table; the default of 5 takes a few seconds, 6 about ten.
+ */
+public class PerftTest {
+
+    private static final String BOARD = "Tester/perft-board.txt";
+    private static final int DEFAULT_DEPTH = 5;
+
+    public static void main(String[] args) throws IOException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        int failures = Perft.check(BOARD, depth);
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " count(s) differ from " + BOARD + ".perft");
+            System.exit(1);
+        }
+        System.out.println("OK: every count to depth " + depth + " matches " + BOARD + ".perft");
+    }
+}
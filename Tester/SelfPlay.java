@@ -0,0 +1,187 @@
+package Tester;
+
+import net.PlayerFactory;
+import player.*;
+import scotlandyard.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays AI against AI without a server, many games at once, for tuning and for catching regressions.
+ * Every game starts from a random standard start position and is played on a HeadlessGame, with Mr X's
+ * player and the detectives' players made by the player factories chosen on the command line. A fresh
+ * factory is made for each game, so nothing one game's players learn carries over to the next.
+ *
+ * At the end it reports how often each side won, how long games lasted and how long moves took.
+ * Usage:
+ * <pre>
+ *   java Tester.SelfPlay [--games N] [--parallel N] [--mrx FACTORY] [--detectives FACTORY]
+ *                        [--time MILLISECONDS] [--threads N] [--seed N] [--graph FILE]
+ *                        [--mrx-weights FILE] [--detective-weights FILE]
+ * </pre>
+ * A factory is "random", "minimax", "mcts" or the class name of any other PlayerFactory with a
+ * no-argument constructor. The time limit is per move, and the threads (1 by default) are each player's,
+ * for the minimax and MCTS players. The weights files are properties files of Evaluation weights for
+ * each side's minimax players, so two sets of weights can be played against each other.
+ */
+public class SelfPlay {
+
+    private static final int DEFAULT_GAMES = 100;
+    private static final long DEFAULT_TIME_LIMIT = 100;
+
+    //Search threads for each minimax or MCTS player
+    private static int threads = 1;
+
+    //Results of all the games, updated by the games as they finish
+    private static final AtomicInteger mrXWins = new AtomicInteger();
+    private static final AtomicInteger detectiveWins = new AtomicInteger();
+    private static final AtomicInteger failures = new AtomicInteger();
+    private static final AtomicLong totalRounds = new AtomicLong();
+    private static final AtomicLong totalMoves = new AtomicLong();
+    private static final AtomicInteger shortestGame = new AtomicInteger(Integer.MAX_VALUE);
+    private static final AtomicInteger longestGame = new AtomicInteger();
+    private static final LatencyHistogram mrXMoves = new LatencyHistogram();
+    private static final LatencyHistogram detectiveMoves = new LatencyHistogram();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int games = Integer.parseInt(options.getOrDefault("games", "" + DEFAULT_GAMES));
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", "" + Runtime.getRuntime().availableProcessors()));
+        String mrX = options.getOrDefault("mrx", "minimax");
+        String detectives = options.getOrDefault("detectives", "minimax");
+        long timeLimit = Long.parseLong(options.getOrDefault("time", "" + DEFAULT_TIME_LIMIT));
+        threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "" + System.currentTimeMillis()));
+        String graphFile = options.getOrDefault("graph", "graph.txt");
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFile);
+        Evaluation mrXWeights = weights(options.get("mrx-weights"));
+        Evaluation detectiveWeights = weights(options.get("detective-weights"));
+        //Check the factories can be made before starting any games
+        factory(mrX, timeLimit, mrXWeights);
+        factory(detectives, timeLimit, detectiveWeights);
+
+        System.out.println("Playing " + games + " games of " + mrX + " (Mr X) against " + detectives + " (detectives), "
+                + parallel + " at a time, " + timeLimit + "ms per move, " + threads + " threads per player, seed " + seed);
+        System.out.println("Mr X weights " + mrXWeights + ", detective weights " + detectiveWeights);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            final long gameSeed = seed + i;
+            results.add(pool.submit(() -> {
+                playGame(graph, graphFile, mrX, detectives, timeLimit, mrXWeights, detectiveWeights, gameSeed);
+                return null;
+            }));
+        }
+        int finished = 0;
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                failures.incrementAndGet();
+                if (failures.get() <= 3)
+                    e.getCause().printStackTrace();
+            }
+            finished++;
+            if (finished % Math.max(games / 10, 1) == 0)
+                System.out.println(finished + " games played, Mr X won " + mrXWins.get());
+        }
+        pool.shutdown();
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        report(games, elapsed);
+    }
+
+    //Plays one game from a random start position, adding its result to the totals
+    private static void playGame(ScotlandYardGraph graph, String graphFile, String mrX, String detectives, long timeLimit,
+                                 Evaluation mrXWeights, Evaluation detectiveWeights, long seed) throws Exception {
+        CustomScotlandYard board = Perft.randomStartPosition(graph, new Random(seed));
+        HeadlessGame game = new HeadlessGame(board);
+        PlayerFactory mrXFactory = factory(mrX, timeLimit, mrXWeights);
+        PlayerFactory detectiveFactory = factory(detectives, timeLimit, detectiveWeights);
+        for (Colour colour : game.getPlayers()) {
+            PlayerFactory factory = colour == Colour.Black ? mrXFactory : detectiveFactory;
+            game.setPlayer(colour, factory.getPlayer(colour, game, graphFile));
+        }
+        for (Spectator spectator : mrXFactory.getSpectators(game))
+            game.spectate(spectator);
+        if (detectiveFactory != mrXFactory) {
+            for (Spectator spectator : detectiveFactory.getSpectators(game))
+                game.spectate(spectator);
+        }
+        mrXFactory.ready();
+        detectiveFactory.ready();
+
+        while (!game.isGameOver()) {
+            Colour colour = game.getCurrentPlayer();
+            long moveStart = System.nanoTime();
+            game.playTurn();
+            long moveTime = System.nanoTime() - moveStart;
+            (colour == Colour.Black ? mrXMoves : detectiveMoves).record(moveTime);
+        }
+        mrXFactory.finish();
+        detectiveFactory.finish();
+
+        if (game.getWinningPlayers().contains(Colour.Black))
+            mrXWins.incrementAndGet();
+        else
+            detectiveWins.incrementAndGet();
+        totalRounds.addAndGet(game.getRound());
+        totalMoves.addAndGet(game.getMoves());
+        shortestGame.accumulateAndGet(game.getRound(), Math::min);
+        longestGame.accumulateAndGet(game.getRound(), Math::max);
+    }
+
+    private static Evaluation weights(String file) throws IOException {
+        return file == null ? Evaluation.defaults() : Evaluation.load(new File(file));
+    }
+
+    private static PlayerFactory factory(String name, long timeLimit, Evaluation weights) throws ReflectiveOperationException {
+        switch (name) {
+            case "random":
+                return new RandomPlayerFactory();
+            case "minimax":
+            case "mcts":
+                AIPlayerFactory factory = new AIPlayerFactory(name.equals("mcts") ? AIPlayerFactory.Engine.MCTS : AIPlayerFactory.Engine.MINIMAX);
+                factory.setTimeLimit(timeLimit);
+                factory.setEvaluation(weights);
+                //The games themselves are run in parallel, so each player gets one thread unless asked for more
+                factory.setThreads(threads);
+                return factory;
+            default:
+                return (PlayerFactory) Class.forName(name).getConstructor().newInstance();
+        }
+    }
+
+    private static void report(int games, long elapsed) {
+        int played = mrXWins.get() + detectiveWins.get();
+        System.out.println(String.format("%d games in %.1fs (%.0f games/minute), %d failed",
+                played, elapsed / 1e9, played * 60e9 / elapsed, failures.get()));
+        if (played == 0)
+            return;
+        double mrXRate = (double) mrXWins.get() / played;
+        //95% confidence interval of the win rate, by the normal approximation
+        double margin = 1.96 * Math.sqrt(mrXRate * (1 - mrXRate) / played);
+        System.out.println(String.format("Mr X won %d (%.1f%% +/- %.1f%%), detectives won %d (%.1f%%)",
+                mrXWins.get(), 100 * mrXRate, 100 * margin, detectiveWins.get(), 100 * (1 - mrXRate)));
+        System.out.println(String.format("Game length: %.1f rounds on average (%d to %d), %.1f moves",
+                (double) totalRounds.get() / played, shortestGame.get(), longestGame.get(), (double) totalMoves.get() / played));
+        System.out.println("Mr X moves:       " + timings(mrXMoves));
+        System.out.println("Detective moves:  " + timings(detectiveMoves));
+    }
+
+    private static String timings(LatencyHistogram moves) {
+        return String.format("%d moves, mean %.2fms, p50 %.2fms, p90 %.2fms, p99 %.2fms, max %.2fms", moves.getCount(),
+                moves.getMean() / 1e6, moves.getPercentile(50) / 1e6, moves.getPercentile(90) / 1e6,
+                moves.getPercentile(99) / 1e6, moves.getMax() / 1e6);
+    }
+}
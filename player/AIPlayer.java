@@ -2,12 +2,13 @@ package player;
 
 import graph.*;
 import scotlandyard.*;
-import swing.algorithms.Dijkstra;
 
 import java.io.IOException;
 import java.util.*;
-
-import static scotlandyard.Ticket.fromTransport;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by minni on 11/03/2016.
@@ -15,58 +16,415 @@ import static scotlandyard.Ticket.fromTransport;
 public class AIPlayer implements Player {
 
     private ScotlandYardGraph graph;
-    private Dijkstra dijkstra;
+    private DistanceOracle distances;
     private int mrXLocation = 1;
     private boolean mrX;
+    private TranspositionTable table;
+    private long nodes = 0;
+    private long timeLimit = DEFAULT_TIME_LIMIT;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private volatile long deadline = Long.MAX_VALUE;
+    private volatile boolean aborted = false;
+    private SearchWorker mainWorker;
+    private int threads = 1;
+    private ForkJoinPool pool;
+    private boolean sharedPool = false; //whether the pool was handed to us by its owner, who shuts it down
+    private SearchWorker[] helpers = new SearchWorker[0];
+    //Workers for pool tasks, kept between moves so their move ordering history isn't lost
+    private final Deque<SearchWorker> idleWorkers = new ConcurrentLinkedDeque<>();
+    private final List<SearchWorker> pooledWorkers = Collections.synchronizedList(new ArrayList<>());
+    private boolean reuseTables = true;
+    private final boolean sharedTable; //whether other players search with the table too, so it mustn't be cleared
+    private long[] threadNodes = new long[1];
+    private MrXTracker tracker; //where Mr X could be, for detectives
+    private boolean mrXKnown = true; //whether mrXLocation is where Mr X is, rather than a detective's guess
+    private int worlds = DEFAULT_WORLDS;
+    private int worldDepth = DEFAULT_WORLD_DEPTH;
+    private final Random random = new Random();
+    private Evaluation evaluation = Evaluation.defaults();
+    private SearchMonitor monitor; //null unless instrumentation is on
+    private long cloneNanos = 0;   //time spent setting up boards for the current move
+    private OpeningBook book;      //null to always search
+    private int endgameRounds = DEFAULT_ENDGAME_ROUNDS;
+    private EndgameSolver solver;  //created the first time the game gets to its last rounds
+
+    public static final long DEFAULT_TIME_LIMIT = 5000; //milliseconds per move
+    public static final int DEFAULT_MAX_DEPTH = 6;
+    public static final int DEFAULT_WORLDS = 8;
+    public static final int DEFAULT_WORLD_DEPTH = 2;
+    public static final int DEFAULT_ENDGAME_ROUNDS = 1;
+    private static final double WORLD_WIN = 1000; //stands in for a won or lost world, so worlds can be averaged
 
     //Issues - mr x's initial location not yet known
     //Because his location isn't updated/visible in the actual game, we have to keep track of it here after we make the AI move
 
     public AIPlayer(boolean mrX, ScotlandYardView view, String graphFilename) throws IOException {
-        ScotlandYardGraphReader reader = new ScotlandYardGraphReader();
-        this.graph = reader.readGraph(graphFilename);
-        this.dijkstra = new Dijkstra(graphFilename);
+        this(mrX, view, graphFilename, TranspositionTable.DEFAULT_MEGABYTES);
+    }
+
+    public AIPlayer(boolean mrX, ScotlandYardView view, String graphFilename, int tableMegabytes) throws IOException {
+        this(mrX, view, graphFilename, new TranspositionTable(tableMegabytes), false);
+    }
+
+    //Players on the same side can share a table, since a position scores the same whichever of them searches it
+    public AIPlayer(boolean mrX, ScotlandYardView view, String graphFilename, TranspositionTable table) throws IOException {
+        this(mrX, view, graphFilename, table, true);
+    }
+
+    private AIPlayer(boolean mrX, ScotlandYardView view, String graphFilename, TranspositionTable table, boolean sharedTable) throws IOException {
+        //Mapped from the compiled graph rather than parsed, and shared by every player for the same file
+        CompiledGraph compiled = CompiledGraph.forGraph(graphFilename);
+        this.graph = compiled.getGraph();
+        this.distances = compiled.getDistances(graphFilename);
+        this.book = OpeningBook.forGraph(graphFilename);
         this.mrX = mrX;
+        this.table = table;
+        this.sharedTable = sharedTable;
+        this.mainWorker = new SearchWorker(this, table);
+        if (!mrX && view != null)
+            this.tracker = new MrXTracker(view, CompactGraph.of(graph));
     }
 
     @Override
     public void notify(int location, List<Move> validmoves, Integer token, Receiver receiver) {
 
-        ScotlandYard game = (ScotlandYard) receiver;
+        //All we need is the view - the receiver is the real ScotlandYard online, or a headless game in self-play
+        ScotlandYardView game = (ScotlandYardView) receiver;
         if(mrX) {
             mrXLocation = location;
+            mrXKnown = true;
         }
         else{
-            mrXLocation = game.getPlayerLocation(Colour.Black);
+            mrXLocation = believedMrXLocation(game);
+            mrXKnown = knowsMrXLocation(game);
+        }
+        Move move = bookMove(game, validmoves);
+        if(move != null) {
+            if (monitor != null)
+                monitor.recordBookMove(move);
         }
-        Move move = initializeMinimax(game, game.validMoves(game.getCurrentPlayer()));
+        else if(!mrX && worlds > 1 && tracker != null && tracker.getRound() == game.getRound() && tracker.size() > 1)
+            move = searchWorlds(game, validmoves);
+        else
+            move = initializeMinimax(game, validmoves);
 
         receiver.playMove(move, token);
     }
 
-    public Move initializeMinimax(ScotlandYard game, List<Move> validMoves) {
+    //The opening book's move for the position, or null if the book doesn't have it. Detectives can only use
+    //the book while their tracker is following the game, since the tracker is part of their positions' keys
+    private Move bookMove(ScotlandYardView game, List<Move> validMoves) {
+        if (book == null || book.size() == 0)
+            return null;
+        if (mrX)
+            return book.bestMove(OpeningBook.mrXKey(game, mrXLocation), validMoves);
+        if (tracker == null || tracker.getRound() != game.getRound())
+            return null;
+        return book.bestMove(OpeningBook.detectiveKey(game, tracker), validMoves);
+    }
+
+    //Without a tracker that has followed the game, all we know is where Mr X was last seen
+    private int believedMrXLocation(ScotlandYardView view) {
+        if (tracker == null || tracker.getRound() != view.getRound())
+            return view.getPlayerLocation(Colour.Black);
+        return tracker.farthestFromDetectives(distances);
+    }
+
+    //Mr X's location is only known for certain in a round he was revealed in, or once the tracker has ruled out
+    //every node but one
+    private boolean knowsMrXLocation(ScotlandYardView view) {
+        if (tracker != null && tracker.getRound() == view.getRound() && tracker.size() == 1)
+            return true;
+        List<Boolean> rounds = view.getRounds();
+        return view.getRound() < rounds.size() && rounds.get(view.getRound());
+    }
+
+    //Determinized search - when Mr X could be in several places, search a sample of them as if each were
+    //known, and play the move that does best on average (perfect information Monte Carlo)
+    private Move searchWorlds(ScotlandYardView game, List<Move> validMoves) {
+        int[] candidates = tracker.toArray();
+        int count = Math.min(worlds, candidates.length);
+        //Partial shuffle - the first count candidates become a uniform sample
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(candidates.length - i);
+            int swap = candidates[i];
+            candidates[i] = candidates[j];
+            candidates[j] = swap;
+        }
+        long start = System.nanoTime();
+        List<CustomScotlandYard> boards = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            boards.add(cloneGame(game, candidates[i]));
+        cloneNanos = System.nanoTime() - start;
+        return searchWorlds(boards, validMoves);
+    }
+
+    /**
+     * Searches the same position in several worlds that differ only in where Mr X is, and returns
+     * the move whose score averaged over the worlds is best for the detectives. Worlds are searched
+     * in parallel on the thread pool, each by iterative deepening to the world depth or until time runs out.
+     *
+     * @param boards     the worlds, all with the same detective to move.
+     * @param validMoves the detective's moves, the same in every world.
+     * @return the move to play.
+     */
+    public Move searchWorlds(List<CustomScotlandYard> boards, List<Move> validMoves) {
+        nodes = 0;
+        aborted = false;
+        long start = System.nanoTime();
+        deadline = start + timeLimit * 1000000L;
+        startSearch(boards.get(0).getRound());
+
+        //Worlds only differ in Mr X's location, which is part of the hash, so they can share the table
+        double[][] scores = new double[boards.size()][];
+        int[] depths = new int[boards.size()];
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < boards.size(); i++) {
+            final int world = i;
+            tasks.add(getPool().submit(() -> {
+                SearchWorker worker = borrowWorker();
+                long before = worker.getNodes();
+                scores[world] = searchWorld(worker, boards.get(world), validMoves, depths, world);
+                idleWorkers.push(worker);
+                return worker.getNodes() - before;
+            }));
+        }
+        for (ForkJoinTask<Long> task : tasks)
+            nodes += task.join();
+        deadline = Long.MAX_VALUE;
+        aborted = false;
+
+        //Average over the worlds that were searched to some depth - the first move wins ties
+        int searched = 0;
+        for (double[] world : scores) {
+            if (world != null)
+                searched++;
+        }
+        Move bestMove = validMoves.get(0);
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0; searched > 0 && i < validMoves.size(); i++) {
+            double total = 0;
+            for (double[] world : scores) {
+                if (world != null)
+                    total += Math.max(-WORLD_WIN, Math.min(WORLD_WIN, world[i]));
+            }
+            if (total / searched < bestScore) {
+                bestScore = total / searched;
+                bestMove = validMoves.get(i);
+            }
+        }
+
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        if (monitor != null) {
+            int shallowest = worldDepth;
+            for (int depth : depths)
+                shallowest = Math.min(shallowest, depth);
+            publish(shallowest, elapsed, false, boards.size(), searched);
+        }
+        cloneNanos = 0;
+        return bestMove;
+    }
+
+    //Iterative deepening in one world, returning every root move's score at the deepest depth completed (null if none was).
+    //The depth completed is left in depths[world]
+    private double[] searchWorld(SearchWorker worker, CustomScotlandYard board, List<Move> validMoves, int[] depths, int world) {
+        double[] completed = null;
+        depths[world] = -1;
+        for (int depth = 0; depth <= worldDepth; depth++) {
+            double[] scores = new double[validMoves.size()];
+            for (int i = 0; i < validMoves.size(); i++) {
+                board.makeMove(validMoves.get(i));
+                //Full window - every move needs its true score to be averaged, not just the best one
+                scores[i] = worker.minimax(depth, 1, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                board.unmakeMove();
+                if (aborted)
+                    return completed;
+            }
+            completed = scores;
+            depths[world] = depth;
+        }
+        return completed;
+    }
+
+    public Move initializeMinimax(ScotlandYardView game, List<Move> validMoves) {
+        //One board for the whole search - moves are made and unmade on it rather than cloned
+        long start = System.nanoTime();
+        CustomScotlandYard board = cloneGame(game);
+        cloneNanos = System.nanoTime() - start;
+        return initializeMinimax(board, validMoves);
+    }
+
+    //Searches for the best move from a position already set up on a board
+    public Move initializeMinimax(CustomScotlandYard board, List<Move> validMoves) {
+        nodes = 0;
+        aborted = false;
+        long start = System.nanoTime();
+        deadline = start + timeLimit * 1000000L;
+        startSearch(board.getRound());
+
+        //Iterative deepening - search one ply deeper each time until we run out of time,
+        //always keeping the best move of the last depth that was searched completely
+        List<Move> rootMoves = distinctMoves(validMoves, !revealsFirstStep(board));
+        if (endgameRounds > 0 && mrXKnown && EndgameSolver.roundsLeft(board) <= endgameRounds) {
+            Move solved = solveEndgame(board, rootMoves);
+            if (solved != null) {
+                deadline = Long.MAX_VALUE;
+                return solved;
+            }
+        }
+        //If an earlier search got to this position and found a best move for it, try that first. The table
+        //numbers moves as the search generates them, with double moves collapsed
+        MoveList generated = new MoveList();
+        board.generateMoves(board.getCurrentPlayer(), generated, true);
+        long rootKey = board.getHash();
+        long rootEntry = table.probe(rootKey);
+        int hashMove = rootEntry != 0 ? TranspositionTable.move(rootEntry) : -1;
+        if (hashMove >= 0 && hashMove < generated.size()) {
+            for (int i = 0; i < rootMoves.size(); i++) {
+                if (PackedMove.fromMove(rootMoves.get(i)) == generated.get(hashMove)) {
+                    rootMoves.add(0, rootMoves.remove(i));
+                    break;
+                }
+            }
+        }
+        List<ForkJoinTask<?>> helperTasks = startHelpers(board, rootMoves);
+        double[] rootScores = new double[rootMoves.size()];
+        Move bestMove = rootMoves.get(0);
+        int depthCompleted = -1;
+
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            Move iterationBest = searchRoot(board, rootMoves, rootScores, depth);
+            if (aborted)
+                break;
+            bestMove = iterationBest;
+            depthCompleted = depth;
+            //Search the most promising moves first next time, so cutoffs come early
+            orderRootMoves(rootMoves, rootScores);
+            //Remember the result for the root too, as a bound since not every move was searched with a full window
+            int bestIndex = -1;
+            for (int i = 0; i < generated.size() && bestIndex < 0; i++) {
+                if (generated.get(i) == PackedMove.fromMove(bestMove))
+                    bestIndex = i;
+            }
+            table.store(rootKey, depth + 1, mrX ? TranspositionTable.LOWER : TranspositionTable.UPPER, rootScores[0], bestIndex);
+        }
+
+        stopHelpers(helperTasks);
+        deadline = Long.MAX_VALUE;
+        aborted = false;
+
+        nodes += mainWorker.getNodes();
+        threadNodes[0] = mainWorker.getNodes();
+        for (int i = 0; i < helpers.length; i++)
+            threadNodes[i + 1] = helpers[i].getNodes();
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        if (monitor != null)
+            publish(depthCompleted, elapsed, true, 0, 0);
+        cloneNanos = 0;
+        return bestMove;
+    }
+
+    //In the last rounds the game is small enough to solve outright, with half the time for the move: play the move
+    //that wins soonest or, for Mr X, loses latest. The solver plays with Mr X in plain sight, so detectives only solve
+    //when they know where he is, and one with no winning move leaves it to the search, since Mr X can drop out of
+    //sight again. Returns null if the solver ran out of time
+    private Move solveEndgame(CustomScotlandYard board, List<Move> rootMoves) {
+        if (solver == null)
+            solver = new EndgameSolver(graph, distances);
+        if (sharedPool)
+            solver.setPool(pool);
+        else
+            solver.setThreads(threads);
+        EndgameSolver.Result[] results = solver.solve(board, rootMoves, timeLimit / 2);
+        if (results == null)
+            return null;
+        int side = mrX ? CustomScotlandYard.MRX_WINS : CustomScotlandYard.DETECTIVES_WIN;
+        int best = 0;
+        for (int i = 1; i < results.length; i++) {
+            if (results[i].isBetterFor(side, results[best]))
+                best = i;
+        }
+        if (!mrX && results[best].getWinner() != side)
+            return null;
+        if (monitor != null)
+            monitor.recordEndgame(rootMoves.get(best), results[best], solver.getNodes(), solver.getMemoryBytes(), solver.getNanos());
+        return rootMoves.get(best);
+    }
+
+    //Adds up the counters of every worker that searched this move and hands them to the monitor, with the number
+    //of worlds a detective sampled and searched. Helpers are only reset when a minimax search starts them, so world
+    //searches leave them out
+    private void publish(int depthCompleted, long elapsed, boolean withHelpers, int worlds, int worldsSearched) {
+        SearchStats stats = new SearchStats();
+        stats.add(mainWorker.getStats());
+        if (withHelpers) {
+            for (SearchWorker helper : helpers)
+                stats.add(helper.getStats());
+        }
+        synchronized (pooledWorkers) {
+            for (SearchWorker worker : pooledWorkers)
+                stats.add(worker.getStats());
+        }
+        stats.cloneNanos += cloneNanos;
+        stats.worlds = worlds;
+        stats.worldsSearched = worldsSearched;
+        monitor.record(stats, depthCompleted, elapsed);
+    }
+
+    //The moves that lead to different positions, in their original order. The game may offer the same move
+    //more than once (a Secret ticket along each of several edges to a node), and double moves with the same
+    //tickets and final target lead to the same position whichever node Mr X passes through - unless that node
+    //is shown to the detectives, so they are only collapsed when asked
+    private static List<Move> distinctMoves(List<Move> validMoves, boolean collapseDoubles) {
+        List<Move> distinct = new ArrayList<>(validMoves.size());
+        Set<Integer> positions = new HashSet<>();
+        for (Move move : validMoves) {
+            int packed = PackedMove.fromMove(move);
+            boolean collapse = collapseDoubles && PackedMove.kind(packed) == PackedMove.DOUBLE;
+            int position = collapse ? PackedMove.withoutTarget1(packed) : packed;
+            if (positions.add(position))
+                distinct.add(move);
+        }
+        return distinct;
+    }
+
+    //Whether a double move by Mr X from this position ends its first step in a reveal round, so the node he
+    //passes through matters. Positions in the search don't record what the detectives were shown, so it only
+    //matters at the root
+    private static boolean revealsFirstStep(CustomScotlandYard board) {
+        List<Boolean> rounds = board.getRounds();
+        int round = board.getRound() + 1;
+        return board.getCurrentPlayer() == Colour.Black && round < rounds.size() && rounds.get(round);
+    }
+
+    //Scores every root move to the given depth, leaving the scores in rootScores. Returns the best move.
+    private Move searchRoot(CustomScotlandYard board, List<Move> rootMoves, double[] rootScores, int depth) {
+        if (threads > 1 && helpers.length == 0 && rootMoves.size() > 1)
+            return searchRootParallel(board, rootMoves, rootScores, depth);
+
         double alpha = Double.NEGATIVE_INFINITY;
         double beta = Double.POSITIVE_INFINITY;
         double mrXBestScore = Double.NEGATIVE_INFINITY;
         double detectiveBestScore = Double.POSITIVE_INFINITY;
+        Move bestMove = rootMoves.get(0);
 
-        Map<Double, Move> moveScores = new HashMap<>();
-
-        for (Move move : validMoves) {
-            //Create new clone for every move and simulate a move on it - takes us to second ply
-            CustomScotlandYard cloneGame = cloneGame(game);
-            cloneGame.playMove(move);
-            List<Move> nextValidMoves = cloneGame.validMoves(cloneGame.getCurrentPlayer());
+        for (int i = 0; i < rootMoves.size(); i++) {
+            Move move = rootMoves.get(i);
+            //Simulate a move on the board - takes us to second ply
+            board.makeMove(move);
             //Get score of the board state after simulating a move - score of each move in second ply
-            double score = minimax(6, cloneGame, alpha, beta, nextValidMoves);
-            //Add move and score to hashmap
-            moveScores.put(score, move);
+            double score = mainWorker.minimax(depth, 1, board, alpha, beta);
+            board.unmakeMove();
+            if (aborted)
+                return bestMove;
+            rootScores[i] = score;
 
             //Note - no need to check if mrXBestScore>beta or detectiveBestScore<alpha, because if mrX, then beta will stay pos infinity. if detective, then alpha will stay neg infinity.
             //Modify top node's alpha/beta if needed. Modify best-score if needed.
             if (mrX) {
                 if (score > mrXBestScore) {
                     mrXBestScore = score;
+                    bestMove = move;
                     if (mrXBestScore > alpha)
                         alpha = mrXBestScore;
                 }
@@ -74,74 +432,394 @@ public class AIPlayer implements Player {
             else {
                 if (score < detectiveBestScore) {
                     detectiveBestScore = score;
+                    bestMove = move;
                     if (detectiveBestScore < beta)
                         beta = detectiveBestScore;
                 }
             }
         }
+        return bestMove;
+    }
 
-        if(mrX)
-            return moveScores.get(mrXBestScore);
-        else
-            return moveScores.get(detectiveBestScore);
+    //Young brothers wait - search the first (best ordered) root move alone to get a bound, then split the
+    //remaining root moves over the pool. Each task searches its own clone of the board with its own worker,
+    //all sharing the transposition table and the best score found so far as their alpha (or beta) bound.
+    private Move searchRootParallel(CustomScotlandYard board, List<Move> rootMoves, double[] rootScores, int depth) {
+        board.makeMove(rootMoves.get(0));
+        rootScores[0] = mainWorker.minimax(depth, 1, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        board.unmakeMove();
+        if (aborted)
+            return rootMoves.get(0);
+
+        AtomicLong bestScore = new AtomicLong(Double.doubleToLongBits(rootScores[0]));
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (int i = 1; i < rootMoves.size(); i++) {
+            final int index = i;
+            tasks.add(getPool().submit(() -> {
+                SearchWorker worker = borrowWorker();
+                long before = worker.getNodes();
+                CustomScotlandYard clone = cloneGame(board);
+                clone.makeMove(rootMoves.get(index));
+
+                double bound = Double.longBitsToDouble(bestScore.get());
+                double alpha = mrX ? bound : Double.NEGATIVE_INFINITY;
+                double beta = mrX ? Double.POSITIVE_INFINITY : bound;
+                double score = worker.minimax(depth, 1, clone, alpha, beta);
+                rootScores[index] = score;
+                if (!aborted)
+                    raiseBound(bestScore, score);
+                idleWorkers.push(worker);
+                return worker.getNodes() - before;
+            }));
+        }
+        for (ForkJoinTask<Long> task : tasks)
+            nodes += task.join();
+        if (aborted)
+            return rootMoves.get(0);
+
+        //Pick the best move in root order, as the single-threaded search would
+        Move bestMove = rootMoves.get(0);
+        double best = rootScores[0];
+        for (int i = 1; i < rootMoves.size(); i++) {
+            if (mrX ? rootScores[i] > best : rootScores[i] < best) {
+                best = rootScores[i];
+                bestMove = rootMoves.get(i);
+            }
+        }
+        return bestMove;
     }
 
-    //Returns best score possible - but not the move
-    public double minimax(int depth, CustomScotlandYard cloneGame, double alpha, double beta, List<Move> validMoves){
+    //Tightens the shared bound if a score improves on it - upwards for Mr X, downwards for detectives
+    private void raiseBound(AtomicLong bestScore, double score) {
+        while (true) {
+            long current = bestScore.get();
+            double currentScore = Double.longBitsToDouble(current);
+            if (mrX ? score <= currentScore : score >= currentScore)
+                return;
+            if (bestScore.compareAndSet(current, Double.doubleToLongBits(score)))
+                return;
+        }
+    }
 
-        if(cloneGame.isGameOver()){
-            if(cloneGame.getWinningPlayers().contains(Colour.Black))
-                return Double.POSITIVE_INFINITY;
-            else
-                return Double.NEGATIVE_INFINITY;
+    private ForkJoinPool getPool() {
+        if (sharedPool)
+            return pool;
+        int parallelism = Math.max(threads, helpers.length);
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(parallelism);
         }
+        return pool;
+    }
 
-        if(depth == 0){
-            //This will return his actual location
-            int mrXLocation = cloneGame.getPlayerLocation(Colour.Black);
-            return score(cloneGame, mrXLocation);
+    /**
+     * Shuts down the threads the player searched with, once its game is over. The player can still be asked
+     * for moves afterwards; it starts new threads if it needs them. A pool given to it with setPool() is left
+     * to its owner.
+     */
+    public void shutdown() {
+        if (pool != null && !sharedPool) {
+            pool.shutdown();
+            pool = null;
         }
+        if (solver != null)
+            solver.shutdown();
+    }
 
-        double maxNodeScore = 0;
-        double minNodeScore = Double.POSITIVE_INFINITY;
-        //Iterate through all valid moves, determine maximum if mrX, determine minimum if detective
-        for(Move move : validMoves){
-            //Create another clone of our clone - simulate next move in that clone
-            CustomScotlandYard cloneGameV2 = cloneGame(cloneGame);
+    //Gets the table and every worker ready for a new move. What earlier moves taught them is kept (but aged)
+    //unless reuse is off, since the position the game has reached is usually somewhere they have searched
+    private void startSearch(int round) {
+        if (!reuseTables)
+            table.clear();
+        table.newSearch(round);
+        mainWorker.newSearch();
+        synchronized (pooledWorkers) {
+            for (SearchWorker worker : pooledWorkers)
+                worker.newSearch();
+        }
+        if (!reuseTables) {
+            mainWorker.forget();
+            for (SearchWorker helper : helpers)
+                helper.forget();
+            synchronized (pooledWorkers) {
+                for (SearchWorker worker : pooledWorkers)
+                    worker.forget();
+            }
+        }
+    }
 
-            cloneGameV2.playMove(move);
-            Colour currentPlayer = cloneGameV2.getCurrentPlayer();
-            List<Move> validMovesV2 = cloneGameV2.validMoves(currentPlayer);
+    //Takes an idle worker for a pool task, creating one if they are all busy; tasks give theirs back when done
+    private SearchWorker borrowWorker() {
+        SearchWorker worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new SearchWorker(this, table);
+            worker.setInstrumented(monitor != null);
+            pooledWorkers.add(worker);
+        }
+        return worker;
+    }
 
-            double score = minimax(depth-1, cloneGameV2, alpha, beta, validMovesV2);
+    //Lazy SMP - helper threads run the same iterative deepening on their own boards, with nothing but the
+    //transposition table shared. Their only output is the table entries that speed up the main search.
+    private List<ForkJoinTask<?>> startHelpers(CustomScotlandYard board, List<Move> rootMoves) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < helpers.length; i++) {
+            final int helper = i;
+            SearchWorker worker = helpers[i];
+            worker.newSearch();
+            CustomScotlandYard clone = cloneGame(board);
+            tasks.add(getPool().submit(() -> runHelper(worker, clone, rootMoves, helper)));
+        }
+        return tasks;
+    }
 
-            //If Maximiser
-            if(cloneGame.getCurrentPlayer() == Colour.Black) {
-                if (score > maxNodeScore) {
-                    maxNodeScore = score;
-                    if(maxNodeScore > alpha)
-                        alpha = maxNodeScore;
-                }//If maximiser can choose a move with a higher score than best current option so far for minimiser, then the minimiser won't consider this branch
-                if (maxNodeScore > beta)
-                    return maxNodeScore;
-            }
-            //If Minimiser
-            else {
-                if (score < minNodeScore) {
-                    minNodeScore = score;
-                    if(minNodeScore < beta)
-                        beta = minNodeScore;
-                }//If minimiser can choose a move with a lower score than best current option so far for maximiser, then the maximiser won't consider this branch
-                if(minNodeScore < alpha)
-                    return minNodeScore;
+    //Half the helpers start a ply deeper than the main search, and each walks the root moves from a
+    //different starting point, so the threads spread over different parts of the tree
+    private void runHelper(SearchWorker worker, CustomScotlandYard board, List<Move> rootMoves, int helper) {
+        List<Move> moves = new ArrayList<>(rootMoves);
+        Collections.rotate(moves, -(helper + 1));
+        for (int depth = 1 + helper % 2; depth <= maxDepth; depth++) {
+            for (Move move : moves) {
+                board.makeMove(move);
+                worker.minimax(depth, 1, board, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                board.unmakeMove();
+                if (worker.isStopped())
+                    return;
             }
         }
+    }
+
+    private void stopHelpers(List<ForkJoinTask<?>> helperTasks) {
+        for (SearchWorker helper : helpers)
+            helper.stop();
+        for (ForkJoinTask<?> task : helperTasks)
+            task.join();
+    }
 
-        //Returns best score possible from all of the valid moves at this ply of the game
-        if(cloneGame.getCurrentPlayer() == Colour.Black)
-            return maxNodeScore;
+    //Sorts root moves best first by their scores from the last iteration - highest first for Mr X, lowest first for detectives
+    private void orderRootMoves(List<Move> rootMoves, double[] rootScores) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < rootMoves.size(); i++)
+            order.add(i);
+        if (mrX)
+            order.sort((a, b) -> Double.compare(rootScores[b], rootScores[a]));
         else
-            return minNodeScore;
+            order.sort((a, b) -> Double.compare(rootScores[a], rootScores[b]));
+
+        List<Move> sortedMoves = new ArrayList<>();
+        double[] sortedScores = new double[rootScores.length];
+        for (int i = 0; i < order.size(); i++) {
+            sortedMoves.add(rootMoves.get(order.get(i)));
+            sortedScores[i] = rootScores[order.get(i)];
+        }
+        for (int i = 0; i < order.size(); i++) {
+            rootMoves.set(i, sortedMoves.get(i));
+            rootScores[i] = sortedScores[i];
+        }
+    }
+
+    //Checks the clock at every node (a node costs far more than reading the clock) -
+    //once the deadline has passed the whole search unwinds without storing anything
+    boolean outOfTime() {
+        if (!aborted && System.nanoTime() > deadline)
+            aborted = true;
+        return aborted;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Sets the number of threads the search splits the root moves over.
+     * With one thread the search runs on the calling thread and is fully deterministic. A player given
+     * a pool with setPool() stops using it, and starts threads of its own.
+     *
+     * @param threads the number of search threads.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Need at least one search thread, got " + threads);
+        this.threads = threads;
+        if (sharedPool) {
+            pool = null;
+            sharedPool = false;
+        }
+    }
+
+    /**
+     * Makes the player search on a pool it shares with other players instead of starting its own threads,
+     * with as many search threads as the pool has. Players that never search at the same time - the
+     * detectives of one game - can share a pool. The player never shuts the pool down; its owner does.
+     *
+     * @param pool the pool to search on.
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (this.pool != null && !sharedPool)
+            this.pool.shutdown();
+        this.pool = pool;
+        this.threads = pool.getParallelism();
+        sharedPool = true;
+    }
+
+    /**
+     * Sets how much work a detective puts into each move when Mr X's location isn't known:
+     * the number of his possible locations searched, and how deep each is searched.
+     * Fewer, shallower worlds give a faster but weaker detective.
+     *
+     * @param worlds the most possible locations to search, 1 to just search the likeliest one.
+     * @param depth  the depth each is searched to.
+     */
+    public void setWorldBudget(int worlds, int depth) {
+        if (worlds < 1 || depth < 0)
+            throw new IllegalArgumentException("Need at least one world and a depth of at least 0, got " + worlds + " worlds to depth " + depth);
+        this.worlds = worlds;
+        this.worldDepth = depth;
+    }
+
+    /**
+     * Returns the tracker of where Mr X could be, which has to be added to the game as a spectator.
+     *
+     * @return the tracker, or null for Mr X.
+     */
+    public MrXTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Sets whether what one move's search learns - the transposition table and the move ordering
+     * history - is kept for the next. It is by default; turning it off makes every search start cold.
+     *
+     * @param reuseTables whether to keep the tables between moves.
+     * @throws IllegalStateException if turning it off when the player shares its table with other players.
+     */
+    public void setReuseTables(boolean reuseTables) {
+        if (!reuseTables && sharedTable)
+            throw new IllegalStateException("Can't clear a transposition table other players are searching with");
+        this.reuseTables = reuseTables;
+    }
+
+    /**
+     * Sets the number of Lazy SMP helper threads that search alongside the main thread, sharing only
+     * the transposition table. When there are helpers the root moves aren't split between threads.
+     *
+     * @param helperThreads the number of helper threads, 0 to turn helpers off.
+     */
+    public void setHelperThreads(int helperThreads) {
+        if (helperThreads < 0)
+            throw new IllegalArgumentException("Helper thread count can't be negative, got " + helperThreads);
+        helpers = new SearchWorker[helperThreads];
+        for (int i = 0; i < helperThreads; i++) {
+            helpers[i] = new SearchWorker(this, table);
+            helpers[i].setInstrumented(monitor != null);
+        }
+        threadNodes = new long[helperThreads + 1];
+    }
+
+    /**
+     * Returns the nodes each thread searched during the last move, so scaling can be checked.
+     *
+     * @return the node count of the main thread followed by those of the helpers.
+     */
+    public long[] getThreadNodes() {
+        return threadNodes.clone();
+    }
+
+    /**
+     * Sets the weights the search scores positions with. Every search thread shares the evaluation,
+     * which is safe since an Evaluation never changes.
+     *
+     * @param evaluation the evaluation to use.
+     */
+    public void setEvaluation(Evaluation evaluation) {
+        this.evaluation = evaluation;
+    }
+
+    public Evaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Sets how many rounds before the end of the game the player stops searching heuristically and solves
+     * the rest of the game exactly (see EndgameSolver), if it can in half the time for the move.
+     *
+     * @param endgameRounds the rounds left when solving starts, 0 to never solve.
+     */
+    public void setEndgameRounds(int endgameRounds) {
+        if (endgameRounds < 0)
+            throw new IllegalArgumentException("Endgame rounds can't be negative, got " + endgameRounds);
+        this.endgameRounds = endgameRounds;
+    }
+
+    /**
+     * Sets the opening book the player answers from while the game is in it. By default it is the book
+     * built for the graph file, if there is one.
+     *
+     * @param book the book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    public OpeningBook getOpeningBook() {
+        return book;
+    }
+
+    /**
+     * Turns search instrumentation on or off. While it is on, every worker counts cutoffs, table hits
+     * and leaves and times move generation and scoring, and each move's totals go to a SearchMonitor
+     * that logs them and is registered as a JMX MBean. While it is off the search only checks a flag.
+     *
+     * @param instrumented whether to instrument the search.
+     */
+    public void setInstrumentation(boolean instrumented) {
+        if (instrumented && monitor == null) {
+            monitor = new SearchMonitor(mrX ? "mrX" : "detective");
+            monitor.register();
+        } else if (!instrumented && monitor != null) {
+            monitor.unregister();
+            monitor = null;
+        }
+        mainWorker.setInstrumented(instrumented);
+        for (SearchWorker helper : helpers)
+            helper.setInstrumented(instrumented);
+        synchronized (pooledWorkers) {
+            for (SearchWorker worker : pooledWorkers)
+                worker.setInstrumented(instrumented);
+        }
+    }
+
+    /**
+     * Returns the monitor the search statistics of each move go to.
+     *
+     * @return the monitor, or null if instrumentation is off.
+     */
+    public SearchMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Sets the wall-clock time each call to notify may spend searching.
+     *
+     * @param timeLimit the time limit per move, in milliseconds.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Sets the deepest iteration the search will try, if it has time.
+     *
+     * @param maxDepth the maximum depth below the root moves.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    //Returns best score possible - but not the move
+    public double minimax(int depth, int ply, CustomScotlandYard cloneGame, double alpha, double beta){
+        return mainWorker.minimax(depth, ply, cloneGame, alpha, beta);
     }
 
 
@@ -157,35 +835,15 @@ public class AIPlayer implements Player {
         }
 
         //Initialize new cloneGame
-        CustomScotlandYard cloneGame = new CustomScotlandYard(game.getPlayers().size(), customRounds, graph);
+        CustomScotlandYard cloneGame = new CustomScotlandYard(game.getPlayers().size() - 1, customRounds, graph);
 
         //Add cloned players to clonegame
         List<Colour> players = game.getPlayers();
 
         for(Colour player : players){
-            int location = game.getPlayerLocation(player); //Note - haven't yet found out mr x's actual location
-            //When adding Mr X to clonegame, ensure his location is up to date with our AI's knowledge.
-            if(player==Colour.Black){
-                location = mrXLocation;
-            }
-            Map<Ticket, Integer> tickets = new HashMap<>();
-
-            int busTickets = game.getPlayerTickets(player, Ticket.Bus);
-            int undergroundTickets = game.getPlayerTickets(player, Ticket.Underground);
-            int taxiTickets = game.getPlayerTickets(player, Ticket.Taxi);
-
-            if(player==Colour.Black) {
-                int doubleTickets = game.getPlayerTickets(player, Ticket.Double);
-                int secretTickets = game.getPlayerTickets(player, Ticket.Secret);
-                tickets.put(Ticket.Double, doubleTickets);
-                tickets.put(Ticket.Secret, secretTickets);
-            }
-
-            tickets.put(Ticket.Bus, busTickets);
-            tickets.put(Ticket.Underground, undergroundTickets);
-            tickets.put(Ticket.Taxi, taxiTickets);
-
-            cloneGame.join(player, location, tickets);
+            //A CustomScotlandYard always knows where Mr X actually is
+            int location = game.getPlayerLocation(player);
+            cloneGame.join(player, location, cloneTickets(game, player));
         }
 
         //Set current round of clonegame
@@ -199,8 +857,13 @@ public class AIPlayer implements Player {
         return cloneGame;
     }
 
-    //Create CustomScotlandYard clone of a real ScotlandYard game
-    public CustomScotlandYard cloneGame(ScotlandYard game){
+    //Create CustomScotlandYard clone of a real ScotlandYard game (or any other view of one)
+    public CustomScotlandYard cloneGame(ScotlandYardView game){
+        return cloneGame(game, mrXLocation);
+    }
+
+    //Clones the game with Mr X on the given node
+    private CustomScotlandYard cloneGame(ScotlandYardView game, int mrXLocation){
         List<Colour> players = game.getPlayers();
 
         //Clone the rounds list
@@ -212,7 +875,7 @@ public class AIPlayer implements Player {
                 customRounds.add(false);
         }
 
-        CustomScotlandYard cloneGame = new CustomScotlandYard(game.getPlayers().size(), customRounds, graph);
+        CustomScotlandYard cloneGame = new CustomScotlandYard(game.getPlayers().size() - 1, customRounds, graph);
 
         //Add cloned players to clonegame
         for(Colour player : players){
@@ -220,24 +883,7 @@ public class AIPlayer implements Player {
             if(player==Colour.Black){
                 location = mrXLocation;
             }
-            Map<Ticket, Integer> tickets = new HashMap<>();
-
-            int busTickets = game.getPlayerTickets(player, Ticket.Bus);
-            int undergroundTickets = game.getPlayerTickets(player, Ticket.Underground);
-            int taxiTickets = game.getPlayerTickets(player, Ticket.Taxi);
-
-            if(player==Colour.Black) {
-                int doubleTickets = game.getPlayerTickets(player, Ticket.Double);
-                int secretTickets = game.getPlayerTickets(player, Ticket.Secret);
-                tickets.put(Ticket.Double, doubleTickets);
-                tickets.put(Ticket.Secret, secretTickets);
-            }
-
-            tickets.put(Ticket.Bus, busTickets);
-            tickets.put(Ticket.Underground, undergroundTickets);
-            tickets.put(Ticket.Taxi, taxiTickets);
-
-            cloneGame.join(player, location, tickets);
+            cloneGame.join(player, location, cloneTickets(game, player));
         }
 
         //Set current player of clonegame
@@ -252,46 +898,19 @@ public class AIPlayer implements Player {
     }
 
 
-    public double score(CustomScotlandYard game, int mrXLocation){
-        double distanceFromDetectives = 0;
-
-        for(CustomPlayerData player: game.players) {
-            if(player.getColour()!=Colour.Black) {
-                Map<Transport, Integer> transports = new HashMap<>();
-                Map<Ticket, Integer> tickets = player.getTickets();
-
-                //Converts TicketHashMap to TransportHashMap for dijkstra's
-                for (Ticket ticket : tickets.keySet()) {
-                    transports.put(fromTransport(ticket), tickets.get(ticket));
-                }
-
-                double shortestRoute = dijkstra.getRoute(player.getLocation(), mrXLocation, transports).size();
-                distanceFromDetectives =+ shortestRoute;
-            }
+    //Copies every ticket type for a player - detectives get their (zero) Double and Secret counts too,
+    //since CustomScotlandYard.validMoves looks up the Secret count for whoever is moving
+    private Map<Ticket, Integer> cloneTickets(ScotlandYardView game, Colour player){
+        Map<Ticket, Integer> tickets = new HashMap<>();
+        for(Ticket ticket : Ticket.values()){
+            int count = game.getPlayerTickets(player, ticket);
+            tickets.put(ticket, Math.max(count, 0));
         }
-
-        return distanceFromDetectives;
+        return tickets;
     }
 
-    public Transport fromTransport(Ticket ticket) {
-        switch (ticket) {
-            case Taxi:
-                return Transport.Taxi;
-            case Bus:
-                return Transport.Bus;
-            case Underground:
-                return Transport.Underground;
-            case Secret:
-                return Transport.Boat;
-            default:
-                return Transport.Taxi;
-        }
+    //Scores a position for Mr X - see Evaluation for what goes into the score
+    public double score(CustomScotlandYard game, int mrXLocation){
+        return evaluation.score(game, mrXLocation, distances);
     }
 }
-
-
-
-
-
-
-
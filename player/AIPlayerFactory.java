@@ -7,28 +7,105 @@ import scotlandyard.ScotlandYardView;
 import scotlandyard.Spectator;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by minni on 13/03/2016.
  */
 public class AIPlayerFactory implements PlayerFactory {
+
+    //The search the AI players use
+    public enum Engine { MINIMAX, MCTS }
+
+    private Engine engine;
+    //The players and spectators made for the game being played - a server plays game after game with one factory
+    private ScotlandYardView game;
+    private List<AIPlayer> players = new ArrayList<>();
+    private List<Spectator> spectators = new ArrayList<>();
+    private long timeLimit = AIPlayer.DEFAULT_TIME_LIMIT;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Evaluation evaluation = Evaluation.defaults();
+    private int tableMegabytes = TranspositionTable.DEFAULT_MEGABYTES;
+    //One transposition table for each side, shared by its players, made when the first of them is
+    private TranspositionTable mrXTable;
+    private TranspositionTable detectiveTable;
+    //The detectives move one at a time, so they share one pool of search threads rather than each having their own
+    private ForkJoinPool detectivePool;
+
+    public AIPlayerFactory() {
+        this(Engine.MINIMAX);
+    }
+
+    public AIPlayerFactory(Engine engine) {
+        this.engine = engine;
+    }
+
     @Override
     public Player getPlayer(Colour player, ScotlandYardView view, String mapFileName) {
+        if (view != game) {
+            endGame();
+            game = view;
+        }
         try {
+            if(engine == Engine.MCTS) {
+                MCTSPlayer mcts = new MCTSPlayer(player == Colour.Black, view, mapFileName);
+                mcts.setTimeLimit(timeLimit);
+                if (mcts.getTracker() != null)
+                    spectators.add(mcts.getTracker());
+                return mcts;
+            }
             if(player == Colour.Black) {
-                AIPlayer mrx = new AIPlayer(true, view, mapFileName);
+                if (mrXTable == null)
+                    mrXTable = new TranspositionTable(tableMegabytes);
+                AIPlayer mrx = new AIPlayer(true, view, mapFileName, mrXTable);
+                mrx.setTimeLimit(timeLimit);
+                mrx.setEvaluation(evaluation);
+                players.add(mrx);
                 return mrx;
             }
+            //Detectives search the places Mr X could be in parallel, and follow his moves as spectators
+            if (detectiveTable == null)
+                detectiveTable = new TranspositionTable(tableMegabytes);
+            AIPlayer detective = new AIPlayer(false, view, mapFileName, detectiveTable);
+            detective.setTimeLimit(timeLimit);
+            detective.setEvaluation(evaluation);
+            if (detectivePool == null)
+                detectivePool = new ForkJoinPool(threads);
+            detective.setPool(detectivePool);
+            players.add(detective);
+            if (detective.getTracker() != null)
+                spectators.add(detective.getTracker());
+            return detective;
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    //Lets self-play give each move less time, and use one thread per game when games run in parallel
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    //The memory each side's transposition table uses, for tables not made yet
+    public void setTableMegabytes(int tableMegabytes) {
+        this.tableMegabytes = tableMegabytes;
+    }
+
+    //The weights minimax players score positions with, so self-play can compare sets of weights
+    public void setEvaluation(Evaluation evaluation) {
+        this.evaluation = evaluation;
+    }
+
     @Override
     public List<Spectator> getSpectators(ScotlandYardView scotlandYardView) {
-        return null;
+        return spectators;
     }
 
     @Override
@@ -38,6 +115,19 @@ public class AIPlayerFactory implements PlayerFactory {
 
     @Override
     public void finish() {
+        endGame();
+    }
 
+    //Shuts down the last game's players' threads and forgets them and its spectators
+    private void endGame() {
+        for (AIPlayer ai : players)
+            ai.shutdown();
+        if (detectivePool != null) {
+            detectivePool.shutdown();
+            detectivePool = null;
+        }
+        players.clear();
+        spectators.clear();
+        game = null;
     }
 }
@@ -0,0 +1,236 @@
+package player;
+
+import graph.*;
+import scotlandyard.*;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * The board as primitive arrays in compressed sparse row form: the edges leaving node n are
+ * entries start(n) to end(n) - 1 of the neighbour and transport arrays.
+ * Edges are kept in the order ScotlandYardGraph.getEdgesFrom() returns them, so anything
+ * that walks this graph visits moves in the same order as code walking the object graph.
+ * The arrays are buffers, so a compiled graph (see CompiledGraph) can be used straight from its mapping;
+ * they are only read with absolute gets, so threads can share them.
+ */
+public class CompactGraph {
+
+    private static final Transport[] TRANSPORTS = Transport.values();
+    private static final Ticket[] TICKETS = new Ticket[TRANSPORTS.length];
+    private static final int[] TICKET_INDICES = new int[TRANSPORTS.length];
+
+    static {
+        for (int i = 0; i < TRANSPORTS.length; i++) {
+            TICKETS[i] = Ticket.fromTransport(TRANSPORTS[i]);
+            TICKET_INDICES[i] = PackedState.indexOf(TICKETS[i]);
+        }
+    }
+
+    //Graphs are shared by every clone of a game, so each is only converted once
+    private static final Map<ScotlandYardGraph, CompactGraph> graphs = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final IntBuffer offsets; //offsets[n] to offsets[n + 1] - 1 are the edges of node n
+    private final IntBuffer neighbours;
+    private final ByteBuffer transports;
+    private final ByteBuffer firstWays; //FIRST_WAY and FIRST_SECRET_WAY bits for each edge
+
+    private static final byte FIRST_WAY = 1;
+    private static final byte FIRST_SECRET_WAY = 2;
+    private static final int SECRET = PackedState.indexOf(Ticket.Secret);
+
+    private CompactGraph(IntBuffer offsets, IntBuffer neighbours, ByteBuffer transports, ByteBuffer firstWays) {
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.transports = transports;
+        this.firstWays = firstWays;
+    }
+
+    //Edges paid for with their own tickets come first, in edge order, then Secret tickets in edge order -
+    //and a boat edge already costs a Secret ticket, so it comes in the first pass
+    private static byte findFirstWays(int[] offsets, int[] neighbours, byte[] transports, int node, int edge) {
+        int dest = neighbours[edge];
+        int ticket = TICKET_INDICES[transports[edge]];
+        byte ways = FIRST_WAY | FIRST_SECRET_WAY;
+        for (int other = offsets[node]; other < offsets[node + 1]; other++) {
+            if (neighbours[other] != dest)
+                continue;
+            if (other < edge && TICKET_INDICES[transports[other]] == ticket)
+                ways &= ~FIRST_WAY;
+            if (other < edge || TICKET_INDICES[transports[other]] == SECRET)
+                ways &= ~FIRST_SECRET_WAY;
+        }
+        return ways;
+    }
+
+    /**
+     * Returns the compact form of a graph, converting it the first time it is asked for.
+     *
+     * @param graph the graph used to represent the board.
+     * @return the compact form of the graph.
+     */
+    public static CompactGraph of(ScotlandYardGraph graph) {
+        CompactGraph compact = graphs.get(graph);
+        if (compact == null) {
+            compact = build(graph);
+            graphs.put(graph, compact);
+        }
+        return compact;
+    }
+
+    /**
+     * Returns a compact form read elsewhere (see CompiledGraph), which of() then returns for the graph
+     * rather than converting it. The buffers are used as they are, not copied.
+     *
+     * @param graph      the graph used to represent the board.
+     * @param offsets    offsets[n] to offsets[n + 1] - 1 are the edges of node n.
+     * @param neighbours the node at the other end of each edge.
+     * @param transports the ordinal of each edge's Transport.
+     * @param firstWays  the firstWay() bits of each edge, as written by writeFirstWays().
+     * @return the compact form of the graph.
+     */
+    static CompactGraph of(ScotlandYardGraph graph, IntBuffer offsets, IntBuffer neighbours, ByteBuffer transports, ByteBuffer firstWays) {
+        CompactGraph compact = new CompactGraph(offsets, neighbours, transports, firstWays);
+        graphs.put(graph, compact);
+        return compact;
+    }
+
+    //Copies the firstWay() bits of every edge, for CompiledGraph to store with the graph
+    void writeFirstWays(ByteBuffer out) {
+        for (int edge = 0; edge < getEdgeCount(); edge++)
+            out.put(firstWays.get(edge));
+    }
+
+    /**
+     * Converts a graph to compact form.
+     *
+     * @param graph the graph used to represent the board.
+     * @return the compact form of the graph.
+     */
+    public static CompactGraph build(ScotlandYardGraph graph) {
+        int size = 0;
+        int edgeCount = 0;
+        List<Node<Integer>> nodes = graph.getNodes();
+        Map<Integer, List<Edge<Integer, Transport>>> edgesFrom = new HashMap<>();
+        for (Node<Integer> node : nodes) {
+            List<Edge<Integer, Transport>> edges = graph.getEdgesFrom(node);
+            edgesFrom.put(node.getIndex(), edges);
+            size = Math.max(size, node.getIndex() + 1);
+            edgeCount += edges.size();
+        }
+
+        int[] offsets = new int[size + 1];
+        int[] neighbours = new int[edgeCount];
+        byte[] transports = new byte[edgeCount];
+        int edge = 0;
+        for (int index = 0; index < size; index++) {
+            offsets[index] = edge;
+            List<Edge<Integer, Transport>> edges = edgesFrom.get(index);
+            if (edges == null)
+                continue;
+            Node<Integer> node = graph.getNode(index);
+            for (Edge<Integer, Transport> e : edges) {
+                neighbours[edge] = e.other(node).getIndex();
+                transports[edge] = (byte) e.getData().ordinal();
+                edge++;
+            }
+        }
+        offsets[size] = edge;
+        byte[] firstWays = new byte[edgeCount];
+        for (int node = 0; node < size; node++) {
+            for (edge = offsets[node]; edge < offsets[node + 1]; edge++)
+                firstWays[edge] = findFirstWays(offsets, neighbours, transports, node, edge);
+        }
+        return new CompactGraph(direct(offsets), direct(neighbours), direct(transports), direct(firstWays));
+    }
+
+    //Read-only direct buffers, like the views of a mapped graph, so whichever way a graph was made its buffers
+    //are the same classes and the calls that read them stay monomorphic
+    private static IntBuffer direct(int[] values) {
+        IntBuffer buffer = ByteBuffer.allocateDirect(4 * values.length).asIntBuffer();
+        buffer.put(values);
+        buffer.clear();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    static ByteBuffer direct(byte[] values) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(values.length);
+        buffer.put(values);
+        buffer.clear();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the largest node index plus one.
+     *
+     * @return the largest node index plus one.
+     */
+    public int getSize() {
+        return offsets.limit() - 1;
+    }
+
+    public int getEdgeCount() {
+        return neighbours.limit();
+    }
+
+    /**
+     * Returns the first edge leaving a node.
+     *
+     * @param node the node.
+     * @return the index of the first edge leaving the node.
+     */
+    public int start(int node) {
+        return offsets.get(node);
+    }
+
+    /**
+     * Returns one past the last edge leaving a node.
+     *
+     * @param node the node.
+     * @return one past the index of the last edge leaving the node.
+     */
+    public int end(int node) {
+        return offsets.get(node + 1);
+    }
+
+    public int target(int edge) {
+        return neighbours.get(edge);
+    }
+
+    public Transport transport(int edge) {
+        return TRANSPORTS[transports.get(edge)];
+    }
+
+    /**
+     * Returns the ticket needed to travel along an edge (a Secret ticket for the boat).
+     *
+     * @param edge the edge.
+     * @return the ticket needed to travel along the edge.
+     */
+    public Ticket ticket(int edge) {
+        return TICKETS[transports.get(edge)];
+    }
+
+    /**
+     * Returns the ticket needed to travel along an edge, as an index into PackedState.TICKETS.
+     *
+     * @param edge the edge.
+     * @return the index of the ticket needed to travel along the edge.
+     */
+    public int ticketIndex(int edge) {
+        return TICKET_INDICES[transports.get(edge)];
+    }
+
+    /**
+     * Returns whether an edge is the first way from its node to its target with a given ticket, so that
+     * moves generated edge by edge can skip parallel edges that would make the same move again.
+     *
+     * @param edge   the edge.
+     * @param secret whether the edge is paid for with a Secret ticket rather than its own.
+     * @return whether no earlier edge (or, for a Secret ticket, no boat edge) makes the same move.
+     */
+    public boolean firstWay(int edge, boolean secret) {
+        return (firstWays.get(edge) & (secret ? FIRST_SECRET_WAY : FIRST_WAY)) != 0;
+    }
+}
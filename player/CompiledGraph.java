@@ -0,0 +1,264 @@
+package player;
+
+import graph.*;
+import scotlandyard.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A graph file compiled to binary (see Tester.GraphCompiler), so the players can start without parsing
+ * the text file or building its tables. The compiled file is memory-mapped, and the CompactGraph and, if
+ * the file has them, the DistanceOracle's distance tables read straight from views of the mapping.
+ *
+ * The file starts with a header - magic number, version, checksum of the graph file it was compiled
+ * from, that file's length and modification time, the number of nodes, the largest node index plus one,
+ * the number of edges, the number of edges in compressed sparse row form (each edge is there twice, once
+ * from each end) and whether distances follow. The players only compare the length and modification time,
+ * so starting up doesn't read the graph file; GraphCompiler checks the checksum.
+ * Then come the node indices and edges in the order the graph file lists them, which the
+ * ScotlandYardGraph the game clones are played on is rebuilt from, the CompactGraph's offsets, neighbours,
+ * transports and first ways, and the distance tables. The int sections come first, so they stay aligned.
+ */
+public class CompiledGraph {
+
+    private static final int MAGIC = 0x53594742; //"SYGB"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 52;
+    private static final int HAS_DISTANCES = 1;
+
+    private static final Transport[] TRANSPORTS = Transport.values();
+    private static final Map<String, CompiledGraph> graphs = new ConcurrentHashMap<>();
+
+    private final long checksum;
+    private final ScotlandYardGraph graph;
+    private final CompactGraph adjacency;
+    private final DistanceOracle distances; //null if the file was compiled without them
+
+    private CompiledGraph(long checksum, ScotlandYardGraph graph, CompactGraph adjacency, DistanceOracle distances) {
+        this.checksum = checksum;
+        this.graph = graph;
+        this.adjacency = adjacency;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the compiled form of a graph file - the file's name plus ".bin" - mapping it the first time the
+     * file is asked for. If there is no compiled file, or the graph file has changed since it was compiled,
+     * the graph file is read and compiled again. Later calls for the same file share one graph.
+     *
+     * @param graphFilename the file the graph is read from.
+     * @return the compiled graph.
+     * @throws IOException if the graph file can't be read.
+     */
+    public static CompiledGraph forGraph(String graphFilename) throws IOException {
+        try {
+            return graphs.computeIfAbsent(graphFilename, filename -> {
+                try {
+                    return loadOrCompile(filename);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static CompiledGraph loadOrCompile(String graphFilename) throws IOException {
+        File source = new File(graphFilename);
+        File compiled = new File(graphFilename + ".bin");
+        try {
+            CompiledGraph graph = load(compiled, source);
+            if (graph != null)
+                return graph;
+        } catch (IOException e) {
+            //Fall through and compile it again
+        }
+        long checksum = DistanceOracle.checksum(source);
+        ScotlandYardGraph graph = new ScotlandYardGraphReader().readGraph(graphFilename);
+        //Built rather than taken from DistanceOracle.forGraph(), which would cache them a second time
+        DistanceOracle distances = DistanceOracle.build(graph);
+        try {
+            save(compiled, source, graph, distances);
+        } catch (IOException e) {
+            System.err.println("Could not compile " + graphFilename + " to " + compiled + ": " + e.getMessage());
+        }
+        return new CompiledGraph(checksum, graph, CompactGraph.of(graph), distances);
+    }
+
+    /**
+     * Maps a graph written by save(), if the graph file it was compiled from hasn't changed since - going by
+     * the file's length and modification time, so the graph file itself isn't read.
+     *
+     * @param file   the file to map.
+     * @param source the graph file it must have been compiled from.
+     * @return the graph, or null if the file is missing or out of date.
+     * @throws IOException if the file can't be read, or isn't a whole compiled graph.
+     */
+    public static CompiledGraph load(File file, File source) throws IOException {
+        long length = source.length();
+        long modified = source.lastModified();
+        return map(file, header -> header.getLong(16) == length && header.getLong(24) == modified);
+    }
+
+    /**
+     * Maps a graph written by save(), if it was compiled from a graph file with the given checksum.
+     *
+     * @param file     the file to map.
+     * @param checksum the checksum of the graph file it must have been compiled from.
+     * @return the graph, or null if the file is missing or was compiled from a different graph.
+     * @throws IOException if the file can't be read, or isn't a whole compiled graph.
+     */
+    public static CompiledGraph load(File file, long checksum) throws IOException {
+        return map(file, header -> header.getLong(8) == checksum);
+    }
+
+    private static CompiledGraph map(File file, Predicate<ByteBuffer> current) throws IOException {
+        if (!file.isFile())
+            return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IOException(file + " is too short to be a compiled graph");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || !current.test(buffer))
+                return null;
+            int nodeCount = buffer.getInt(32);
+            int size = buffer.getInt(36);
+            int edgeCount = buffer.getInt(40);
+            int arcCount = buffer.getInt(44);
+            int flags = buffer.getInt(48);
+            long length = HEADER_BYTES + 4L * (nodeCount + 2L * edgeCount + size + 1 + arcCount) + edgeCount + 2L * arcCount;
+            if ((flags & HAS_DISTANCES) != 0)
+                length += DistanceOracle.tableBytes(size);
+            if (channel.size() != length)
+                throw new IOException(file + " should be " + length + " bytes long but is " + channel.size());
+
+            int position = HEADER_BYTES;
+            IntBuffer nodes = ints(buffer, position, nodeCount);
+            IntBuffer sources = ints(buffer, position += 4 * nodeCount, edgeCount);
+            IntBuffer targets = ints(buffer, position += 4 * edgeCount, edgeCount);
+            IntBuffer offsets = ints(buffer, position += 4 * edgeCount, size + 1);
+            IntBuffer neighbours = ints(buffer, position += 4 * (size + 1), arcCount);
+            ByteBuffer edgeTransports = bytes(buffer, position += 4 * arcCount, edgeCount);
+            ByteBuffer transports = bytes(buffer, position += edgeCount, arcCount);
+            ByteBuffer firstWays = bytes(buffer, position += arcCount, arcCount);
+            DistanceOracle distances = (flags & HAS_DISTANCES) != 0
+                    ? DistanceOracle.of(size, bytes(buffer, position + arcCount, DistanceOracle.tableBytes(size))) : null;
+
+            ScotlandYardGraph graph = new ScotlandYardGraph();
+            for (int i = 0; i < nodeCount; i++)
+                graph.addNode(new Node<>(nodes.get(i)));
+            for (int edge = 0; edge < edgeCount; edge++)
+                graph.addEdge(new Edge<>(graph.getNode(sources.get(edge)), graph.getNode(targets.get(edge)), TRANSPORTS[edgeTransports.get(edge)]));
+            CompactGraph adjacency = CompactGraph.of(graph, offsets, neighbours, transports, firstWays);
+            return new CompiledGraph(buffer.getLong(8), graph, adjacency, distances);
+        }
+    }
+
+    //A view of part of the mapping - the mapping stays valid after its channel is closed
+    private static IntBuffer ints(ByteBuffer buffer, int position, int count) {
+        return bytes(buffer, position, 4 * count).asIntBuffer();
+    }
+
+    private static ByteBuffer bytes(ByteBuffer buffer, int position, int count) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position + count);
+        return view.slice();
+    }
+
+    /**
+     * Writes a compiled graph.
+     *
+     * @param file      the file to write.
+     * @param source    the graph file the graph was read from.
+     * @param graph     the graph read from that file.
+     * @param distances the distances between the graph's nodes, or null to leave them out.
+     * @throws IOException if either file can't be read or written.
+     */
+    public static void save(File file, File source, ScotlandYardGraph graph, DistanceOracle distances) throws IOException {
+        //Length and time first, so a graph file changed while it is checksummed looks out of date
+        long length = source.length();
+        long modified = source.lastModified();
+        long checksum = DistanceOracle.checksum(source);
+        CompactGraph adjacency = CompactGraph.of(graph);
+        List<Node<Integer>> nodes = graph.getNodes();
+        List<Edge<Integer, Transport>> edges = graph.getEdges();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeInt(nodes.size());
+            out.writeInt(adjacency.getSize());
+            out.writeInt(edges.size());
+            out.writeInt(adjacency.getEdgeCount());
+            out.writeInt(distances != null ? HAS_DISTANCES : 0);
+            for (Node<Integer> node : nodes)
+                out.writeInt(node.getIndex());
+            for (Edge<Integer, Transport> edge : edges)
+                out.writeInt(edge.getSource().getIndex());
+            for (Edge<Integer, Transport> edge : edges)
+                out.writeInt(edge.getTarget().getIndex());
+            for (int node = 0; node <= adjacency.getSize(); node++)
+                out.writeInt(node < adjacency.getSize() ? adjacency.start(node) : adjacency.getEdgeCount());
+            for (int edge = 0; edge < adjacency.getEdgeCount(); edge++)
+                out.writeInt(adjacency.target(edge));
+            for (Edge<Integer, Transport> edge : edges)
+                out.writeByte(edge.getData().ordinal());
+            for (int edge = 0; edge < adjacency.getEdgeCount(); edge++)
+                out.writeByte(adjacency.transport(edge).ordinal());
+            ByteBuffer firstWays = ByteBuffer.allocate(adjacency.getEdgeCount());
+            adjacency.writeFirstWays(firstWays);
+            out.write(firstWays.array());
+            if (distances != null)
+                distances.write(out);
+        }
+    }
+
+    /**
+     * Returns the checksum of the graph file the graph was compiled from.
+     *
+     * @return the checksum of the graph file.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the graph, built the way ScotlandYardGraphReader builds it, for the game clones.
+     *
+     * @return the graph used to represent the board.
+     */
+    public ScotlandYardGraph getGraph() {
+        return graph;
+    }
+
+    public CompactGraph getAdjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Returns the distances between the graph's nodes, from the compiled file if it has them.
+     *
+     * @param graphFilename the file the graph was read from, to find or build the distances for otherwise.
+     * @return the distances between the graph's nodes.
+     */
+    public DistanceOracle getDistances(String graphFilename) {
+        return distances != null ? distances : DistanceOracle.forGraph(graphFilename, graph);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledGraph[" + graph.getNodes().size() + " nodes, " + adjacency.getEdgeCount() + " edges"
+                + (distances != null ? ", with distances" : "") + "]";
+    }
+}
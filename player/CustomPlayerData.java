@@ -10,7 +10,7 @@ import java.util.Map;
 public class CustomPlayerData {
 
     private Colour colour;
-    private Integer location;
+    private int location;
     public Map<Ticket, Integer> tickets;
 
     /**
@@ -20,7 +20,7 @@ public class CustomPlayerData {
      * @param location the location of the player.
      * @param tickets the tickets associated with the player.
      */
-    public CustomPlayerData(Colour colour, Integer location, Map<Ticket, Integer> tickets) {
+    public CustomPlayerData(Colour colour, int location, Map<Ticket, Integer> tickets) {
         this.colour = colour;
         this.location = location;
         this.tickets = tickets;
@@ -40,7 +40,7 @@ public class CustomPlayerData {
      *
      * @param location the player's current location.
      */
-    public void setLocation(Integer location) {
+    public void setLocation(int location) {
         this.location = location;
     }
 
@@ -49,7 +49,7 @@ public class CustomPlayerData {
      *
      * @return the player's current location.
      */
-    public Integer getLocation() {
+    public int getLocation() {
         return location;
     }
 
@@ -96,7 +96,7 @@ public class CustomPlayerData {
         Integer ticketCount = tickets.get(ticket);
         if (inc) ticketCount++;
         else ticketCount--;
-        tickets.remove(ticket);
+        //Replacing the value in place keeps the existing map entry, so no new entry is allocated
         tickets.put(ticket, ticketCount);
     }
 
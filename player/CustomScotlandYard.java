@@ -16,11 +16,29 @@ public class CustomScotlandYard implements ScotlandYardView{
     protected CustomPlayerData currentPlayer;
     protected List<CustomPlayerData> players = new ArrayList<>();
     protected ScotlandYardGraph graph;
+    protected CompactGraph adjacency; //the same graph as primitive arrays, for move generation
     protected Integer numberOfPlayers;
     protected List<Boolean> rounds;
-    protected Integer mrXLocation = 0; //updated by play()
-    protected Integer round = 0; //updated by play()
+    protected int mrXLocation = 0; //updated by play()
+    protected int round = 0; //updated by play()
     protected boolean mrxwinner;
+    protected Previous[] history = new Previous[32]; //undo records for makeMove()/unmakeMove()
+    protected int historySize = 0;
+    protected long hash = 0; //Zobrist hash of the position, kept up to date by play() and nextPlayer()
+
+    protected int detectiveTickets = 0; //number of (detective, ticket type) pairs with tickets left, kept up to date by play()
+    protected long statusHash = 0; //position the cached status belongs to
+    protected int status = -1; //cached result of getStatus(), -1 when unknown
+
+    public static final int NOT_OVER = 0;
+    public static final int MRX_WINS = 1;
+    public static final int DETECTIVES_WIN = 2;
+
+    private static final int SECRET = PackedState.indexOf(Ticket.Secret);
+    //Double moves already added, by (first ticket, second ticket, final target), when collapsing them
+    private long[] doublesSeen;
+    //Mr X's tickets while his double moves are generated, in the order of PackedState.TICKETS
+    private final int[] ticketCounts = new int[PackedState.TICKETS.length];
 
 
     /**
@@ -34,6 +52,7 @@ public class CustomScotlandYard implements ScotlandYardView{
         this.numberOfPlayers = numberOfDetectives;
         this.rounds = rounds;
         this.graph = graph;
+        this.adjacency = CompactGraph.of(graph);
     }
 
     /**
@@ -47,11 +66,91 @@ public class CustomScotlandYard implements ScotlandYardView{
             nextPlayer();
     }
 
+    /**
+     * Plays a move and remembers what it changed, so that it can be taken back with unmakeMove().
+     * Lets a search walk the game tree on a single board instead of cloning the board for every node.
+     *
+     * @param move  the move chosen by the player.
+     */
+    public void makeMove(Move move) {
+        makeMove(PackedMove.fromMove(move));
+    }
+
+    /**
+     * Plays a packed move (see PackedMove) and remembers what it changed, so that it can be taken back with unmakeMove().
+     *
+     * @param move  the packed move chosen by the player.
+     */
+    public void makeMove(int move) {
+        if (historySize == history.length)
+            history = Arrays.copyOf(history, historySize * 2);
+        Previous previous = history[historySize];
+        if (previous == null) {
+            previous = new Previous();
+            history[historySize] = previous;
+        }
+        historySize++;
+        previous.clear();
+
+        previous.cplayer = currentPlayer;
+        previous.location = currentPlayer.getLocation();
+        previous.round = round;
+        previous.mrXLocation = mrXLocation;
+        previous.hash = hash;
+        previous.detectiveTickets = detectiveTickets;
+
+        Colour colour = PackedState.COLOURS[PackedMove.colour(move)];
+        int kind = PackedMove.kind(move);
+        if (kind == PackedMove.SINGLE) {
+            Ticket ticket = PackedState.TICKETS[PackedMove.ticket1(move)];
+            previous.removedticket = ticket;
+            if (colour != Colour.Black)
+                previous.giventicket = ticket;
+            play(colour, ticket, PackedMove.target1(move));
+        } else if (kind == PackedMove.DOUBLE) {
+            previous.removedticket = PackedState.TICKETS[PackedMove.ticket1(move)];
+            previous.removedticket2 = PackedState.TICKETS[PackedMove.ticket2(move)];
+            previous.doublemove = true;
+            play(colour, previous.removedticket, PackedMove.target1(move));
+            play(colour, previous.removedticket2, PackedMove.target2(move));
+            changeTicket(currentPlayer, Ticket.Double, -1);
+        }
+
+        nextPlayer();
+    }
+
+    /**
+     * Takes back the last move played with makeMove(), restoring the board exactly as it was.
+     */
+    public void unmakeMove() {
+        Previous previous = history[--historySize];
+
+        currentPlayer = previous.cplayer;
+        currentPlayer.setLocation(previous.location);
+        if (previous.removedticket != null)
+            currentPlayer.addTicket(previous.removedticket);
+        if (previous.removedticket2 != null)
+            currentPlayer.addTicket(previous.removedticket2);
+        if (previous.doublemove)
+            currentPlayer.addTicket(Ticket.Double);
+        if (previous.giventicket != null) {
+            for (CustomPlayerData player : players) {
+                if (player.getColour() == Colour.Black)
+                    player.removeTicket(previous.giventicket);
+            }
+        }
+        round = previous.round;
+        mrXLocation = previous.mrXLocation;
+        hash = previous.hash;
+        detectiveTickets = previous.detectiveTickets;
+    }
+
     /**
      * Passes priority onto the next player whose turn it is to play.
      */
     protected void nextPlayer() {
         int i = 0;
+        CustomPlayerData next = players.get(0);
 
         for (CustomPlayerData x : players) {
             if (currentPlayer == x) {
@@ -59,11 +158,12 @@ public class CustomScotlandYard implements ScotlandYardView{
                 continue;
             }
             if (i == 1) {
-                currentPlayer = x;
-                return;
+                next = x;
+                break;
             }
         }
-        currentPlayer = players.get(0);
+        hash ^= Zobrist.side(PackedState.indexOf(currentPlayer.getColour())) ^ Zobrist.side(PackedState.indexOf(next.getColour()));
+        currentPlayer = next;
     }
 
     /**
@@ -86,21 +186,32 @@ public class CustomScotlandYard implements ScotlandYardView{
      * @param move the MoveTicket to play.
      */
     protected void play(MoveTicket move) {
-        Ticket ticket = move.ticket;
+        play(move.colour, move.ticket, move.target);
+    }
 
+    /**
+     * Plays a single ticket for the current player.
+     *
+     * @param colour the colour of the player making the move.
+     * @param ticket the ticket used.
+     * @param target the node moved to.
+     */
+    protected void play(Colour colour, Ticket ticket, int target) {
         //Set new location & decrement ticket
-        currentPlayer.setLocation(move.target);
-        currentPlayer.removeTicket(ticket);
+        setLocation(currentPlayer, target);
+        changeTicket(currentPlayer, ticket, -1);
         //Add used tickets to Mr X's tickets, if current player isn't Mr X
-        if (move.colour != Colour.Black) {
-            for (CustomPlayerData player : players) {
+        if (colour != Colour.Black) {
+            for (int i = 0; i < players.size(); i++) {
+                CustomPlayerData player = players.get(i);
                 if (player.getColour() == Colour.Black) {
-                    player.addTicket(ticket);
+                    changeTicket(player, ticket, 1);
                 }
             }
         }
         //Increment round at end of move, if current player is Mr X
         if (currentPlayer.getColour() == Colour.Black) {
+            hash ^= roundKey(round) ^ roundKey(round + 1);
             round++;
             //ALWAYS UPDATE MRXLOCATION
             mrXLocation = currentPlayer.getLocation();
@@ -118,7 +229,65 @@ public class CustomScotlandYard implements ScotlandYardView{
         MoveTicket moveB = move.move2;
         play(moveB);
         //decrement double tickets
-        currentPlayer.removeTicket(Ticket.Double);
+        changeTicket(currentPlayer, Ticket.Double, -1);
+    }
+
+    // Moves a player, keeping the hash up to date.
+    private void setLocation(CustomPlayerData player, int location) {
+        int index = PackedState.indexOf(player.getColour());
+        hash ^= Zobrist.location(index, player.getLocation()) ^ Zobrist.location(index, location);
+        player.setLocation(location);
+    }
+
+    // Adds (1) or removes (-1) a ticket, keeping the hash up to date.
+    private void changeTicket(CustomPlayerData player, Ticket ticket, int change) {
+        int count = player.getTickets().get(ticket);
+        hash ^= ticketKey(player, ticket, count) ^ ticketKey(player, ticket, count + change);
+        if (player.getColour() != Colour.Black && (count > 0) != (count + change > 0))
+            detectiveTickets += change;
+        if (change > 0)
+            player.addTicket(ticket);
+        else
+            player.removeTicket(ticket);
+    }
+
+    private static long ticketKey(CustomPlayerData player, Ticket ticket, int count) {
+        return Zobrist.tickets(PackedState.indexOf(player.getColour()), PackedState.indexOf(ticket), count & (Zobrist.MAX_TICKET_COUNT - 1));
+    }
+
+    private static long roundKey(int round) {
+        return Zobrist.round(round & (Zobrist.MAX_ROUND - 1));
+    }
+
+    /**
+     * Recomputes the hash from scratch. Only needed when the position is set up directly
+     * rather than reached through play(), as in join(), setRound() and setCurrentPlayer().
+     */
+    protected void rehash() {
+        hash = roundKey(round);
+        if (currentPlayer != null)
+            hash ^= Zobrist.side(PackedState.indexOf(currentPlayer.getColour()));
+        detectiveTickets = 0;
+        for (CustomPlayerData player : players) {
+            hash ^= Zobrist.location(PackedState.indexOf(player.getColour()), player.getLocation());
+            for (Ticket ticket : PackedState.TICKETS) {
+                Integer count = player.getTickets().get(ticket);
+                hash ^= ticketKey(player, ticket, count == null ? 0 : count);
+                if (player.getColour() != Colour.Black && count != null && count > 0)
+                    detectiveTickets++;
+            }
+        }
+        status = -1;
+    }
+
+    /**
+     * Returns the 64-bit Zobrist hash of the position, matching PackedState.fromGame(this).hash().
+     * Two positions with the same hash are, barring a collision, the same position.
+     *
+     * @return the 64-bit Zobrist hash of the position.
+     */
+    public long getHash() {
+        return hash;
     }
 
     /**
@@ -137,116 +306,186 @@ public class CustomScotlandYard implements ScotlandYardView{
      * @return the list of valid moves for a given player.
      */
     public List<Move> validMoves(Colour player) {
-        List<Move> validMoves = new ArrayList<>();
-
-
-        for (CustomPlayerData x : players) {
-            if (x.getColour() == player) {
+        MoveList moves = new MoveList();
+        generateMoves(player, moves);
 
-                Map<Ticket, Integer> tickets = x.getTickets();
-                int numberOfSecretTickets = tickets.get(Ticket.Secret);
-                int location = x.getLocation();
-
-                Node<Integer> node = graph.getNode(location);
-                List<Edge<Integer, Transport>> edgelistA = new ArrayList<>();
-                List<Edge<Integer, Transport>> edgelistB = new ArrayList<>();
-                edgelistA = graph.getEdgesFrom(node);
-
-                for (Edge<Integer, Transport> edgeA : edgelistA) {
-
-                    Node<Integer> destnodeA = edgeA.other(node);
-                    int destA = destnodeA.getIndex();
-                    Transport transportA = edgeA.getData();
-                    Ticket ticketA = Ticket.fromTransport(transportA);
-                    int numberofticketsA = tickets.get(ticketA);
+        List<Move> validMoves = new ArrayList<>(moves.size());
+        for (int i = 0; i < moves.size(); i++)
+            validMoves.add(PackedMove.toMove(moves.get(i)));
+        return validMoves;
+    }
 
-                    MoveTicket moveA = MoveTicket.instance(player, ticketA, destA);
-                    Move moveSecret = MoveTicket.instance(player, Ticket.Secret, destA);
+    /**
+     * Writes the valid moves for a given player into a move list, as packed moves (see PackedMove),
+     * in the same order as validMoves() returns them: the single moves of generateSingleMoves()
+     * followed by the double moves of generateDoubleMoves(). Allocates nothing once the list is big enough.
+     *
+     * @param player the player whose moves we want to see.
+     * @param moves  the list to fill; it is cleared first.
+     */
+    public void generateMoves(Colour player, MoveList moves) {
+        generateMoves(player, moves, false);
+    }
 
-                    boolean checkoccupied = false;
+    /**
+     * Writes the valid moves for a given player into a move list, optionally with only one double
+     * move for each position double moves lead to (see generateDoubleMoves()).
+     *
+     * @param player   the player whose moves we want to see.
+     * @param moves    the list to fill; it is cleared first.
+     * @param collapse whether to leave out double moves that lead to the same position as an earlier one.
+     */
+    public void generateMoves(Colour player, MoveList moves, boolean collapse) {
+        generateSingleMoves(player, moves);
+        generateDoubleMoves(player, moves, collapse);
+    }
 
-                    //check if node is occupied by detective
-                    for (CustomPlayerData y : players) {
-                        if (y.getColour() != Colour.Black && y.getLocation() == destA)
-                            checkoccupied = true;
-                    }
+    /**
+     * Writes a player's single moves into a move list: first those paid for with the ticket the
+     * transport needs, then those paid for with a Secret ticket. A detective with no moves gets a pass.
+     * Each (ticket, target) pair is only written once, however many edges lead there.
+     *
+     * A double move starts with a step that is a valid single move on its own, so a player with no
+     * single moves has no moves at all - these are enough to tell whether the game is over.
+     *
+     * @param player the player whose moves we want to see.
+     * @param moves  the list to fill; it is cleared first.
+     */
+    public void generateSingleMoves(Colour player, MoveList moves) {
+        moves.clear();
+        int colour = PackedState.indexOf(player);
+        CustomPlayerData x = player(player);
+        if (x != null) {
+            Map<Ticket, Integer> tickets = x.getTickets();
+            int location = x.getLocation();
+            int end = adjacency.end(location);
+
+            for (int edge = adjacency.start(location); edge < end; edge++) {
+                int dest = adjacency.target(edge);
+                //check if node is occupied by detective
+                if (tickets.get(adjacency.ticket(edge)) > 0 && !isOccupied(Colour.Black, dest, dest) && adjacency.firstWay(edge, false))
+                    moves.add(PackedMove.single(colour, adjacency.ticketIndex(edge), dest));
+            }
+            if (tickets.get(Ticket.Secret) > 0) {
+                for (int edge = adjacency.start(location); edge < end; edge++) {
+                    int dest = adjacency.target(edge);
+                    if (!isOccupied(Colour.Black, dest, dest) && adjacency.firstWay(edge, true))
+                        moves.add(PackedMove.single(colour, SECRET, dest));
+                }
+            }
+        }
 
-                    if (checkoccupied == false) {
-                        if (numberofticketsA > 0)
-                            validMoves.add(moveA);
-                        if (numberOfSecretTickets > 0)
-                            validMoves.add(moveSecret);
-                    }
+        //If no moves, insert pass move
+        if (moves.isEmpty() && player != Colour.Black)
+            moves.add(PackedMove.pass(colour));
+    }
 
-                    //adding double moves
-                    if (player == Colour.Black && tickets.get(Ticket.Double) > 0) {
-                        edgelistB = graph.getEdgesFrom(destnodeA);
-
-                        for (Edge<Integer, Transport> edgeB : edgelistB) {
-//        					System.out.println("Edge is " + edgeB);
-
-                            Node<Integer> destnodeB = edgeB.other(destnodeA);
-                            int destB = destnodeB.getIndex();
-                            Transport transportB = edgeB.getData();
-                            Ticket ticketB = Ticket.fromTransport(transportB);
-                            int numberofticketsB = tickets.get(ticketB);
-
-                            MoveTicket moveB = MoveTicket.instance(player, ticketB, destB);
-
-                            Move doubleMove = MoveDouble.instance(player, moveA, moveB);
-                            Move doubleMoveS1 = MoveDouble.instance(player, Ticket.Secret, destA, ticketB, destB);
-                            Move doubleMoveS2 = MoveDouble.instance(player, ticketA, destA, Ticket.Secret, destB);
-                            Move doubleMoveS3 = MoveDouble.instance(player, Ticket.Secret, destA, Ticket.Secret, destB);
-
-                            boolean checkoccupiedB = false;
-
-                            //check nodes aren't occupied
-                            for (CustomPlayerData b : players) {
-                                if (b.getColour() != player) {
-                                    int playerLocation = b.getLocation();
-                                    if (playerLocation == destA || playerLocation == destB)
-                                        checkoccupiedB = true;
-                                }
-                            }
-
-                            if (checkoccupiedB == false) {
-                                if (ticketA == ticketB) {
-                                    if (numberofticketsA > 1)
-                                        validMoves.add(doubleMove);
-                                    if (numberOfSecretTickets > 0) {
-                                        validMoves.add(doubleMoveS1);
-                                        validMoves.add(doubleMoveS2);
-                                    }
-                                    if (numberOfSecretTickets > 1) {
-                                        validMoves.add(doubleMoveS3);
-                                    }
-                                } else if (numberofticketsA > 0) {
-                                    if (numberofticketsA > 0)
-                                        validMoves.add(doubleMove);
-                                    if (numberOfSecretTickets > 0) {
-                                        validMoves.add(doubleMoveS1);
-                                        validMoves.add(doubleMoveS2);
-                                    }
-                                    if (numberOfSecretTickets > 1) {
-                                        validMoves.add(doubleMoveS3);
-                                    }
-                                }
-                            }
-                        }
+    /**
+     * Adds a player's double moves to the end of a move list. Only Mr X, and only while he has a
+     * Double ticket, has any. Each step can be paid for with its transport's ticket or a Secret ticket,
+     * and each (ticket, target, ticket, target) combination is only added once.
+     *
+     * Double moves with the same two tickets and the same final target lead to the same position
+     * whichever node Mr X passes through, so a search can ask for just the first of them.
+     *
+     * @param player   the player whose moves we want to see.
+     * @param moves    the list to add to.
+     * @param collapse whether to leave out double moves that lead to the same position as an earlier one.
+     */
+    public void generateDoubleMoves(Colour player, MoveList moves, boolean collapse) {
+        CustomPlayerData x = player(player);
+        if (x == null || player != Colour.Black)
+            return;
+        Map<Ticket, Integer> tickets = x.getTickets();
+        if (tickets.get(Ticket.Double) <= 0)
+            return;
+        if (collapse && doublesSeen == null)
+            doublesSeen = new long[(PackedState.TICKETS.length * PackedState.TICKETS.length * Zobrist.MAX_NODE + 63) >>> 6];
+        else if (collapse)
+            Arrays.fill(doublesSeen, 0);
+        for (int ticket = 0; ticket < ticketCounts.length; ticket++)
+            ticketCounts[ticket] = tickets.get(PackedState.TICKETS[ticket]);
+        int colour = PackedState.indexOf(player);
+        int location = x.getLocation();
+        int endA = adjacency.end(location);
+
+        for (int edgeA = adjacency.start(location); edgeA < endA; edgeA++) {
+
+            int destA = adjacency.target(edgeA);
+            int endB = adjacency.end(destA);
+
+            for (int edgeB = adjacency.start(destA); edgeB < endB; edgeB++) {
+
+                int destB = adjacency.target(edgeB);
+
+                //check nodes aren't occupied
+                if (isOccupied(player, destA, destB))
+                    continue;
+
+                //Each step with its own ticket, then with a Secret ticket in place of either or both
+                for (int secrets = 0; secrets < 4; secrets++) {
+                    boolean secretA = (secrets & 1) != 0;
+                    boolean secretB = (secrets & 2) != 0;
+                    int ticketA = secretA ? SECRET : adjacency.ticketIndex(edgeA);
+                    int ticketB = secretB ? SECRET : adjacency.ticketIndex(edgeB);
+                    if (!affordable(ticketA, ticketB) || !adjacency.firstWay(edgeA, secretA) || !adjacency.firstWay(edgeB, secretB))
+                        continue;
+                    if (collapse) {
+                        int seen = (ticketA * PackedState.TICKETS.length + ticketB) * Zobrist.MAX_NODE + destB;
+                        if ((doublesSeen[seen >>> 6] & (1L << seen)) != 0)
+                            continue;
+                        doublesSeen[seen >>> 6] |= 1L << seen;
                     }
+                    moves.add(PackedMove.doubleMove(colour, ticketA, destA, ticketB, destB));
                 }
-                break;
             }
         }
+    }
 
+    // Whether Mr X can pay for two steps with the given tickets (indices into PackedState.TICKETS).
+    private boolean affordable(int ticketA, int ticketB) {
+        if (ticketA == ticketB)
+            return ticketCounts[ticketA] > 1;
+        return ticketCounts[ticketA] > 0 && ticketCounts[ticketB] > 0;
+    }
 
-        //If no moves, insert pass move
-        Move passMove = MovePass.instance(player);
+    // Finds the data of the player with a given colour, or null if they haven't joined.
+    private CustomPlayerData player(Colour colour) {
+        for (int i = 0; i < players.size(); i++) {
+            if (players.get(i).getColour() == colour)
+                return players.get(i);
+        }
+        return null;
+    }
 
-        if (validMoves.isEmpty() && player != Colour.Black)
-            validMoves.add(passMove);
+    // Checks whether a player has at least one move (a pass doesn't count), stopping at the first one found.
+    // Follows the same rules as generateMoves(), and like generateSingleMoves() it needn't look at double
+    // moves: any double move starts with a single move the player could make on its own.
+    private boolean hasAnyMove(CustomPlayerData x) {
+        Map<Ticket, Integer> tickets = x.getTickets();
+        int numberOfSecretTickets = tickets.get(Ticket.Secret);
+        int location = x.getLocation();
+        int end = adjacency.end(location);
+
+        for (int edge = adjacency.start(location); edge < end; edge++) {
+            int dest = adjacency.target(edge);
+            if ((tickets.get(adjacency.ticket(edge)) > 0 || numberOfSecretTickets > 0) && !isOccupied(Colour.Black, dest, dest))
+                return true;
+        }
+        return false;
+    }
 
-        return validMoves;
+    // Checks whether any player other than the given one stands on either node.
+    private boolean isOccupied(Colour mover, int nodeA, int nodeB) {
+        for (int i = 0; i < players.size(); i++) {
+            CustomPlayerData player = players.get(i);
+            if (player.getColour() != mover) {
+                int playerLocation = player.getLocation();
+                if (playerLocation == nodeA || playerLocation == nodeB)
+                    return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -272,6 +511,7 @@ public class CustomScotlandYard implements ScotlandYardView{
                 }
             }
         }
+        rehash();
         return true;
     }
 
@@ -283,19 +523,10 @@ public class CustomScotlandYard implements ScotlandYardView{
      * @return The list of players.
      */
     public List<Colour> getPlayers() {
+        //The colours that joined, in the order they joined - not the first few colours, which aren't always the ones playing
         List<Colour> currentPlayers = new ArrayList<>();
-        currentPlayers.add(Colour.Black);
-        int playernumber = numberOfPlayers;
-        if (playernumber > 0)
-            currentPlayers.add(Colour.Blue);
-        if (playernumber > 1)
-            currentPlayers.add(Colour.Green);
-        if (playernumber > 2)
-            currentPlayers.add(Colour.Red);
-        if (playernumber > 3)
-            currentPlayers.add(Colour.White);
-        if (playernumber > 4)
-            currentPlayers.add(Colour.Yellow);
+        for (CustomPlayerData player : players)
+            currentPlayers.add(player.getColour());
         return currentPlayers;
     }
 
@@ -307,30 +538,11 @@ public class CustomScotlandYard implements ScotlandYardView{
      */
     public Set<Colour> getWinningPlayers() {
         Set<Colour> winningPlayers = new HashSet<>();
-        boolean mrxwins = true;
-        int mrXLocation = 0;
+        int status = getStatus();
 
-        //Get MrX's Location and check if he has valid moves
-        for (CustomPlayerData player : players) {
-            if (player.getColour() == Colour.Black) {
-                mrXLocation = player.getLocation();
-                if (currentPlayer == player && validMoves(player.getColour()).isEmpty()) {
-                    mrxwins = false;
-                }
-            }
-        }
-        //Check if player has landed on MrX
-        for (CustomPlayerData player : players) {
-            if (player.getColour() != Colour.Black)
-                if (player.getLocation() == mrXLocation) {
-                    System.out.println("On location");
-                    mrxwins = false;
-                }
-        }
-        if (mrxwins == true && isGameOver()) {
+        if (status == MRX_WINS) {
             winningPlayers.add(Colour.Black);
-        } else if (isGameOver()) {
-            System.out.println("game is over");
+        } else if (status == DETECTIVES_WIN) {
             for (CustomPlayerData player : players) {
                 if (player.getColour() != Colour.Black) {
                     winningPlayers.add(player.getColour());
@@ -340,6 +552,74 @@ public class CustomScotlandYard implements ScotlandYardView{
         return winningPlayers;
     }
 
+    /**
+     * Works out whether the game is over and who has won, without generating any move lists.
+     * Checks are O(players) apart from looking for a move for stuck players, which stops at the first move found.
+     * The result is cached for the current position.
+     *
+     * @return NOT_OVER, MRX_WINS or DETECTIVES_WIN.
+     */
+    public int getStatus() {
+        return getStatus(null);
+    }
+
+    /**
+     * Works out whether the game is over and who has won, reusing the moves already generated for
+     * the current player (as a search does) to tell whether they are stuck.
+     *
+     * @param currentMoves the moves generateMoves() or generateSingleMoves() gave the current player, or null if they haven't been generated.
+     * @return NOT_OVER, MRX_WINS or DETECTIVES_WIN.
+     */
+    public int getStatus(MoveList currentMoves) {
+        if (status >= 0 && statusHash == hash)
+            return status;
+
+        CustomPlayerData mrX = null;
+        for (int i = 0; i < players.size(); i++) {
+            if (players.get(i).getColour() == Colour.Black)
+                mrX = players.get(i);
+        }
+        boolean mrXToMove = currentPlayer == mrX;
+
+        //Mr X loses if he is caught, or if it is his turn and he can't move
+        boolean caught = false;
+        for (int i = 0; i < players.size(); i++) {
+            CustomPlayerData player = players.get(i);
+            if (player != mrX && player.getLocation() == mrX.getLocation())
+                caught = true;
+        }
+        boolean mrXStuck = mrXToMove && !hasMoves(mrX, currentMoves);
+
+        boolean over = players.size() == 1 || caught || mrXStuck || detectiveTickets == 0
+                || (round >= rounds.size() - 1 && mrXToMove);
+        //Game over if every detective is stuck
+        if (!over) {
+            over = true;
+            for (int i = 0; i < players.size() && over; i++) {
+                CustomPlayerData player = players.get(i);
+                if (player != mrX && hasMoves(player, currentMoves))
+                    over = false;
+            }
+        }
+
+        if (!over)
+            status = NOT_OVER;
+        else if (caught || mrXStuck)
+            status = DETECTIVES_WIN;
+        else
+            status = MRX_WINS;
+        statusHash = hash;
+        mrxwinner = status == MRX_WINS;
+        return status;
+    }
+
+    // Checks whether a player can move, using the current player's generated moves when we have them.
+    private boolean hasMoves(CustomPlayerData player, MoveList currentMoves) {
+        if (player == currentPlayer && currentMoves != null)
+            return !currentMoves.isEmpty() && PackedMove.kind(currentMoves.get(0)) != PackedMove.PASS;
+        return hasAnyMove(player);
+    }
+
 
     /**
      * The location of a player with a given colour in its last known location.
@@ -392,63 +672,7 @@ public class CustomScotlandYard implements ScotlandYardView{
      * @return true when the game is over, false otherwise.
      */
     public boolean isGameOver() {
-        //Game over if only one player
-        if (players.size() == 1) {
-            mrxwinner = true;
-            return true;
-        }
-        //Check Mr X has any moves left
-        if (currentPlayer.getColour() == Colour.Black) {
-            List<Move> validmoves = validMoves(Colour.Black);
-            if (validmoves.isEmpty()) {
-                return true;
-            }
-        }
-        //Check players still have valid moves
-        int numberOfPasses = 0;
-        for (CustomPlayerData player : players) {
-            List<Move> validmoves = new ArrayList<>();
-            validmoves = validMoves(player.getColour());
-            for (Move move : validmoves) {
-                if (move instanceof MovePass)
-                    numberOfPasses++;
-            }
-        }
-        if (numberOfPasses == players.size() - 1) {
-            return true;
-        }
-        //Check if Detective has landed on Mr X
-        int blacklocation = 0;
-        for (CustomPlayerData player : players) {
-            if (player.getColour() == Colour.Black)
-                blacklocation = player.getLocation();
-        }
-        for (CustomPlayerData player : players) {
-            if (player.getColour() != Colour.Black && player.getLocation() == blacklocation) {
-                return true;
-            }
-        }
-        //Check players still have tickets
-        int i = 0;
-        for (CustomPlayerData player : players) {
-            if (player.getColour() != Colour.Black) {
-                Map<Ticket, Integer> tickets = player.getTickets();
-                for (Integer value : tickets.values()) {
-                    if (value > 0)
-                        i++;
-                }
-            }
-        }
-        if (i == 0) {
-            mrxwinner = true;
-            return true;
-        }
-        if (round == rounds.size() - 1 && currentPlayer.getColour() == Colour.Black) {
-            mrxwinner = true;
-            return true;
-        }
-
-        return false;
+        return getStatus() != NOT_OVER;
     }
 
     /**
@@ -477,6 +701,7 @@ public class CustomScotlandYard implements ScotlandYardView{
                 currentPlayer = player;
             }
         }
+        rehash();
     }
     /**
      * The round number is determined by the number of moves MrX has played.
@@ -491,6 +716,7 @@ public class CustomScotlandYard implements ScotlandYardView{
 
     public void setRound(int round){
         this.round = round;
+        rehash();
     }
 
     /**
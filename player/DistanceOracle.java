@@ -0,0 +1,264 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * All-pairs shortest hop counts for every combination of transports a player may hold tickets for.
+ * Built once per graph file by a breadth-first search from every node for each of the 16 transport
+ * subsets, and looked up in O(1) afterwards. With about 200 nodes the whole table is a few hundred KB.
+ *
+ * The table can be cached on disk next to the graph file; the cache records a checksum of the
+ * graph file, so an out of date cache is ignored and rebuilt. The players get theirs from the compiled
+ * graph instead (see CompiledGraph), straight from its mapping.
+ */
+public class DistanceOracle {
+
+    public static final int TAXI = 1;
+    public static final int BUS = 2;
+    public static final int UNDERGROUND = 4;
+    public static final int BOAT = 8;
+    public static final int ALL_TRANSPORTS = TAXI | BUS | UNDERGROUND | BOAT;
+    private static final int SUBSETS = ALL_TRANSPORTS + 1;
+
+    public static final int UNREACHABLE = 0xFF;
+
+    private static final int MAGIC = 0x53594454; //"SYDT"
+    private static final int VERSION = 1;
+
+    private static final Map<String, DistanceOracle> oracles = new ConcurrentHashMap<>();
+
+    private final int size; //largest node index + 1
+    private final ByteBuffer distances; //read with absolute gets only, so threads can share it
+
+    private DistanceOracle(int size, ByteBuffer distances) {
+        this.size = size;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the oracle for a graph file, building it (or loading it from the disk cache) the first time
+     * the file is asked for. Later calls for the same file share one oracle.
+     *
+     * @param graphFilename the file the graph was read from.
+     * @param graph         the graph read from that file.
+     * @return the oracle for the graph.
+     */
+    public static DistanceOracle forGraph(String graphFilename, ScotlandYardGraph graph) {
+        return oracles.computeIfAbsent(graphFilename, filename -> loadOrBuild(filename, graph));
+    }
+
+    private static DistanceOracle loadOrBuild(String graphFilename, ScotlandYardGraph graph) {
+        File cache = new File(graphFilename + ".dist");
+        long checksum;
+        try {
+            checksum = checksum(new File(graphFilename));
+        } catch (IOException e) {
+            return build(graph);
+        }
+        try {
+            DistanceOracle oracle = load(cache, checksum);
+            if (oracle != null)
+                return oracle;
+        } catch (IOException e) {
+            //Fall through and rebuild the cache
+        }
+        DistanceOracle oracle = build(graph);
+        try {
+            oracle.save(cache, checksum);
+        } catch (IOException e) {
+            System.err.println("Could not cache distances in " + cache + ": " + e.getMessage());
+        }
+        return oracle;
+    }
+
+    //An oracle for a table read elsewhere (see CompiledGraph), used as it is rather than copied
+    static DistanceOracle of(int size, ByteBuffer distances) {
+        return new DistanceOracle(size, distances);
+    }
+
+    /**
+     * Returns the size of the distance tables for a graph.
+     *
+     * @param size the largest node index plus one.
+     * @return the number of bytes in the tables.
+     */
+    public static int tableBytes(int size) {
+        return SUBSETS * size * size;
+    }
+
+    /**
+     * Builds the oracle for a graph.
+     *
+     * @param graph the graph used to represent the board.
+     * @return the oracle for the graph.
+     */
+    public static DistanceOracle build(ScotlandYardGraph graph) {
+        CompactGraph adjacency = CompactGraph.of(graph);
+        int size = adjacency.getSize();
+
+        byte[] distances = new byte[tableBytes(size)];
+        Arrays.fill(distances, (byte) UNREACHABLE);
+        int[] queue = new int[size];
+        for (int subset = 0; subset < SUBSETS; subset++) {
+            for (int source = 0; source < size; source++) {
+                if (adjacency.start(source) == adjacency.end(source))
+                    continue;
+                int base = (subset * size + source) * size;
+                distances[base + source] = 0;
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = source;
+                while (head < tail) {
+                    int node = queue[head++];
+                    int distance = distances[base + node] & 0xFF;
+                    for (int edge = adjacency.start(node); edge < adjacency.end(node); edge++) {
+                        int next = adjacency.target(edge);
+                        if ((transportBit(adjacency.transport(edge)) & subset) != 0 && (distances[base + next] & 0xFF) == UNREACHABLE) {
+                            distances[base + next] = (byte) Math.min(distance + 1, UNREACHABLE - 1);
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+            }
+        }
+        return new DistanceOracle(size, CompactGraph.direct(distances));
+    }
+
+    /**
+     * Returns the fewest moves between two nodes using only the given transports.
+     *
+     * @param from       the starting node.
+     * @param to         the destination node.
+     * @param transports a mask of TAXI, BUS, UNDERGROUND and BOAT.
+     * @return the number of moves, or UNREACHABLE.
+     */
+    public int distance(int from, int to, int transports) {
+        return distances.get((transports * size + from) * size + to) & 0xFF;
+    }
+
+    /**
+     * Returns the transports a player can currently use, as a mask for distance().
+     * Secret tickets let a player use every transport, including the boat.
+     *
+     * @param tickets the player's tickets.
+     * @return the mask of usable transports.
+     */
+    public static int transportsOf(Map<Ticket, Integer> tickets) {
+        if (count(tickets, Ticket.Secret) > 0)
+            return ALL_TRANSPORTS;
+        int transports = 0;
+        if (count(tickets, Ticket.Taxi) > 0)
+            transports |= TAXI;
+        if (count(tickets, Ticket.Bus) > 0)
+            transports |= BUS;
+        if (count(tickets, Ticket.Underground) > 0)
+            transports |= UNDERGROUND;
+        return transports;
+    }
+
+    private static int count(Map<Ticket, Integer> tickets, Ticket ticket) {
+        Integer count = tickets.get(ticket);
+        return count == null ? 0 : count;
+    }
+
+    public static int transportBit(Transport transport) {
+        switch (transport) {
+            case Taxi:
+                return TAXI;
+            case Bus:
+                return BUS;
+            case Underground:
+                return UNDERGROUND;
+            default:
+                return BOAT;
+        }
+    }
+
+    /**
+     * Returns the largest node index the oracle knows about, plus one.
+     *
+     * @return the largest node index plus one.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Writes the oracle to a file.
+     *
+     * @param file     the file to write.
+     * @param checksum the checksum of the graph file the oracle was built from.
+     * @throws IOException if the file can't be written.
+     */
+    public void save(File file, long checksum) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum);
+            out.writeInt(size);
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the distance tables alone, without a header.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the stream can't be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        ByteBuffer table = distances.duplicate();
+        table.clear();
+        byte[] chunk = new byte[8192];
+        while (table.hasRemaining()) {
+            int length = Math.min(chunk.length, table.remaining());
+            table.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Reads an oracle written by save().
+     *
+     * @param file     the file to read.
+     * @param checksum the checksum of the graph file the oracle must have been built from.
+     * @return the oracle, or null if the file is missing or was built from a different graph.
+     * @throws IOException if the file can't be read.
+     */
+    public static DistanceOracle load(File file, long checksum) throws IOException {
+        if (!file.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != checksum)
+                return null;
+            int size = in.readInt();
+            byte[] distances = new byte[tableBytes(size)];
+            in.readFully(distances);
+            return new DistanceOracle(size, CompactGraph.direct(distances));
+        }
+    }
+
+    /**
+     * Returns the CRC32 checksum of a file's contents.
+     *
+     * @param file the file to check.
+     * @return the checksum of the file.
+     * @throws IOException if the file can't be read.
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+}
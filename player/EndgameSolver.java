@@ -0,0 +1,441 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Solves the last few rounds of a game exactly, for a position where Mr X's location is known: instead
+ * of scoring the leaves, it finds whether the detectives can force a catch before the game runs out.
+ *
+ * The search asks "can the detectives win within n plies?" - at a detective's turn one move that does
+ * is enough, at Mr X's every move has to. Asked with n covering every ply left in the game, the answer
+ * is who wins; if it is the detectives, asking again for n = 0, 1, 2, ... finds the fewest plies they can
+ * force the win in. Mr X's wins all last until the final round, so theirs is the plies left if every
+ * remaining round is played out one move at a time. Moves are tried in order of distance - Mr X's away
+ * from the detectives, theirs towards him - so the move that settles the question usually comes first.
+ *
+ * Answers are memoised by Zobrist hash in a table of primitive arrays, holding for each position the
+ * fewest plies it is known to be won in and the most it is known to hold out for. The state space is
+ * partitioned by the first move: each of the position's moves is solved as its own task, with its own
+ * board and table, so the partitions share nothing and run in parallel on the solver's pool.
+ */
+public class EndgameSolver {
+
+    private final ScotlandYardGraph graph;
+    private final DistanceOracle distances;
+    private int threads = 1;
+    private ForkJoinPool pool;
+    private boolean sharedPool = false; //whether the pool was handed to us by its owner, who shuts it down
+    private volatile boolean aborted = false;
+    private long deadline = Long.MAX_VALUE;
+
+    //Statistics of the last solve
+    private long nodes = 0;
+    private long memoryBytes = 0;
+    private long nanos = 0;
+
+    /**
+     * Constructs a solver for games played on a graph.
+     *
+     * @param graph     the graph used to represent the board.
+     * @param distances the distances between the graph's nodes, which order the moves.
+     */
+    public EndgameSolver(ScotlandYardGraph graph, DistanceOracle distances) {
+        this.graph = graph;
+        this.distances = distances;
+    }
+
+    /**
+     * Sets the number of threads the partitions are solved on.
+     *
+     * @param threads the number of threads.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Need at least one solver thread, got " + threads);
+        this.threads = threads;
+        if (sharedPool) {
+            pool = null;
+            sharedPool = false;
+        }
+    }
+
+    /**
+     * Makes the solver solve on a pool it shares with others, with as many threads as the pool has,
+     * instead of starting its own. The solver never shuts the pool down; its owner does.
+     *
+     * @param pool the pool to solve on.
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (this.pool != null && !sharedPool)
+            this.pool.shutdown();
+        this.pool = pool;
+        this.threads = pool.getParallelism();
+        sharedPool = true;
+    }
+
+    /**
+     * Returns the number of rounds left in a game: Mr X moves until the final round. A double move in
+     * the last round but one carries the game past the final round, which leaves none.
+     *
+     * @param board the position.
+     * @return the number of rounds left.
+     */
+    public static int roundsLeft(CustomScotlandYard board) {
+        return Math.max(board.getRounds().size() - 1 - board.getRound(), 0);
+    }
+
+    /**
+     * Solves a position.
+     *
+     * @param board     the position, left as it was found.
+     * @param timeLimit the longest the solver may take, in milliseconds.
+     * @return the result, or null if the time ran out first.
+     */
+    public Result solve(CustomScotlandYard board, long timeLimit) {
+        MoveList generated = new MoveList();
+        board.generateMoves(board.getCurrentPlayer(), generated, true);
+        int status = board.getStatus(generated);
+        if (status != CustomScotlandYard.NOT_OVER)
+            return new Result(status, 0);
+        List<Move> moves = new ArrayList<>();
+        for (int i = 0; i < generated.size(); i++)
+            moves.add(PackedMove.toMove(generated.get(i)));
+        Result[] results = solve(board, moves, timeLimit);
+        if (results == null)
+            return null;
+
+        //The side to move wins if any move wins for it, as soon as it can - otherwise it holds out as long as it can
+        boolean mrX = board.getCurrentPlayer() == Colour.Black;
+        int winner = mrX ? CustomScotlandYard.MRX_WINS : CustomScotlandYard.DETECTIVES_WIN;
+        Result best = null;
+        for (Result result : results) {
+            if (best == null || result.isBetterFor(winner, best))
+                best = result;
+        }
+        return new Result(best.getWinner(), best.getWinner() == CustomScotlandYard.MRX_WINS ? pliesLeft(board) : best.getDistance() + 1);
+    }
+
+    /**
+     * Solves every move from a position, each as its own partition of the state space.
+     *
+     * @param board     the position, left as it was found.
+     * @param moves     the moves to solve, all valid for the player to move.
+     * @param timeLimit the longest the solver may take, in milliseconds.
+     * @return the result of each move, or null if the time ran out first.
+     */
+    public Result[] solve(CustomScotlandYard board, List<Move> moves, long timeLimit) {
+        long start = System.nanoTime();
+        deadline = timeLimit >= Long.MAX_VALUE / 1000000L ? Long.MAX_VALUE : start + timeLimit * 1000000L;
+        aborted = false;
+        Result[] results = new Result[moves.size()];
+        Partition[] partitions = new Partition[moves.size()];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        PackedState position = PackedState.fromGame(board);
+        for (int i = 0; i < moves.size(); i++) {
+            final int index = i;
+            tasks.add(getPool().submit(() -> {
+                CustomScotlandYard clone = position.toGame(graph, board.getRounds());
+                clone.makeMove(moves.get(index));
+                partitions[index] = new Partition();
+                results[index] = partitions[index].solve(clone);
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+
+        nodes = 0;
+        memoryBytes = 0;
+        for (Partition partition : partitions) {
+            nodes += partition.nodes;
+            memoryBytes += partition.table.bytes();
+        }
+        nanos = System.nanoTime() - start;
+        deadline = Long.MAX_VALUE;
+        return aborted ? null : results;
+    }
+
+    private ForkJoinPool getPool() {
+        if (sharedPool)
+            return pool;
+        if (pool == null || pool.getParallelism() != threads) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /**
+     * Shuts down the solver's threads. The solver can still be used afterwards; it starts new threads
+     * the next time it solves. A pool given to it with setPool() is left to its owner.
+     */
+    public void shutdown() {
+        if (pool != null && !sharedPool) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    // The plies left in the game if every remaining round is played out one move at a time.
+    private static int pliesLeft(CustomScotlandYard board) {
+        int players = board.getPlayers().size();
+        int next = board.getPlayers().indexOf(board.getCurrentPlayer());
+        //Detectives still to move this round, then every player in each round left
+        int rest = next == 0 ? 0 : players - next;
+        return rest + roundsLeft(board) * players;
+    }
+
+    /**
+     * Returns the positions searched by the last solve, over every partition.
+     *
+     * @return the number of positions searched.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the memory the memo tables of the last solve took, over every partition.
+     *
+     * @return the size of the tables, in bytes.
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Who wins a position with perfect play, and how many plies the game lasts.
+     */
+    public static class Result {
+
+        private final int winner;
+        private final int distance;
+
+        public Result(int winner, int distance) {
+            this.winner = winner;
+            this.distance = distance;
+        }
+
+        /**
+         * Returns who wins.
+         *
+         * @return CustomScotlandYard.MRX_WINS or CustomScotlandYard.DETECTIVES_WIN.
+         */
+        public int getWinner() {
+            return winner;
+        }
+
+        /**
+         * Returns the plies until the game ends with perfect play.
+         *
+         * @return the number of plies to the end of the game.
+         */
+        public int getDistance() {
+            return distance;
+        }
+
+        /**
+         * Returns whether this result is better than another for one side: a win beats a loss, a
+         * quicker win beats a slower one and a slower loss beats a quicker one.
+         *
+         * @param side  CustomScotlandYard.MRX_WINS or CustomScotlandYard.DETECTIVES_WIN, the side asking.
+         * @param other the result to compare with.
+         * @return true if this result is better for the side.
+         */
+        public boolean isBetterFor(int side, Result other) {
+            if (winner != other.winner)
+                return winner == side;
+            return winner == side ? distance < other.distance : distance > other.distance;
+        }
+
+        @Override
+        public String toString() {
+            return (winner == CustomScotlandYard.MRX_WINS ? "Mr X wins" : "detectives win") + " in " + distance + " plies";
+        }
+    }
+
+    //One partition of the state space: a board, a memo table and move lists of its own
+    private class Partition {
+
+        private final Table table = new Table();
+        private final List<MoveList> lists = new ArrayList<>();
+        private final List<int[]> orders = new ArrayList<>(); //move indices, best first, for each ply
+        private int[] keys = new int[64];
+        private long nodes = 0;
+
+        //Whether the detectives can win at all comes first. Only if they can is the question deepened one
+        //ply at a time, so the first n they win within is the fewest plies they need
+        Result solve(CustomScotlandYard board) {
+            int plies = pliesLeft(board);
+            if (!detectivesWin(board, plies, 0))
+                return aborted ? null : new Result(CustomScotlandYard.MRX_WINS, plies);
+            for (int n = 0; n < plies; n++) {
+                if (detectivesWin(board, n, 0))
+                    return new Result(CustomScotlandYard.DETECTIVES_WIN, n);
+                if (aborted)
+                    return null;
+            }
+            return aborted ? null : new Result(CustomScotlandYard.DETECTIVES_WIN, plies);
+        }
+
+        //Whether the detectives can force a win within n plies
+        private boolean detectivesWin(CustomScotlandYard board, int n, int ply) {
+            nodes++;
+            if ((nodes & 1023) == 0 && System.nanoTime() > deadline)
+                aborted = true;
+            if (aborted)
+                return false;
+            if (ply == lists.size()) {
+                lists.add(new MoveList());
+                orders.add(new int[64]);
+            }
+            MoveList moves = lists.get(ply);
+            Colour colour = board.getCurrentPlayer();
+            board.generateMoves(colour, moves, true);
+            int status = board.getStatus(moves);
+            if (status != CustomScotlandYard.NOT_OVER)
+                return status == CustomScotlandYard.DETECTIVES_WIN;
+            if (n == 0)
+                return false;
+
+            long key = board.getHash();
+            int slot = table.find(key);
+            if (slot >= 0) {
+                int won = table.won[slot];
+                if (won > 0 && won <= n)
+                    return true;
+                if (table.held[slot] >= n)
+                    return false;
+            }
+
+            //Mr X escapes the bound if any of his moves does; the detectives win within it if any of theirs does
+            boolean mrX = colour == Colour.Black;
+            int[] order = order(board, moves, ply, mrX);
+            boolean win = mrX;
+            for (int i = 0; i < moves.size() && win == mrX; i++) {
+                board.makeMove(moves.get(order[i]));
+                win = detectivesWin(board, n - 1, ply + 1);
+                board.unmakeMove();
+            }
+            if (!aborted)
+                table.store(key, win, n);
+            return win;
+        }
+
+        //Orders the moves so that the likeliest to settle the question come first: for Mr X the ones ending
+        //furthest from the nearest detective, for a detective the ones ending nearest Mr X (a catch first of all)
+        private int[] order(CustomScotlandYard board, MoveList moves, int ply, boolean mrX) {
+            int size = moves.size();
+            if (orders.get(ply).length < size)
+                orders.set(ply, new int[size * 2]);
+            if (keys.length < size)
+                keys = new int[size * 2];
+            int[] order = orders.get(ply);
+            int mrXLocation = board.getPlayerLocation(Colour.Black);
+            for (int i = 0; i < size; i++) {
+                int target = PackedMove.finalTarget(moves.get(i));
+                int distance;
+                if (mrX) {
+                    distance = DistanceOracle.UNREACHABLE;
+                    for (int player = 0; player < board.players.size(); player++) {
+                        CustomPlayerData detective = board.players.get(player);
+                        if (detective.getColour() != Colour.Black)
+                            distance = Math.min(distance, distances.distance(detective.getLocation(), target, DistanceOracle.ALL_TRANSPORTS));
+                    }
+                    distance = -distance;
+                } else {
+                    distance = distances.distance(target, mrXLocation, DistanceOracle.ALL_TRANSPORTS); //a pass ends on node 0, which is unreachable
+                }
+                //Insertion sort, keeping generation order between equals
+                int j = i;
+                for (; j > 0 && keys[j - 1] > distance; j--) {
+                    keys[j] = keys[j - 1];
+                    order[j] = order[j - 1];
+                }
+                keys[j] = distance;
+                order[j] = i;
+            }
+            return order;
+        }
+    }
+
+    //Open addressing from Zobrist hash to what is known about a position, growing to stay at most half full
+    private static class Table {
+
+        private static final int INITIAL_CAPACITY = 1 << 8;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private byte[] won = new byte[INITIAL_CAPACITY];  //fewest plies the detectives are known to win within, 0 if none
+        private byte[] held = new byte[INITIAL_CAPACITY]; //most plies Mr X is known to hold out for
+        private int count = 0;
+
+        //0 marks an empty slot, so a position that hashes to 0 is stored under 1
+        private static long nonZero(long key) {
+            return key == 0 ? 1 : key;
+        }
+
+        int find(long key) {
+            key = nonZero(key);
+            int mask = keys.length - 1;
+            for (int slot = index(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key)
+                    return slot;
+            }
+            return -1;
+        }
+
+        void store(long key, boolean win, int n) {
+            if (2 * (count + 1) > keys.length)
+                grow();
+            key = nonZero(key);
+            int mask = keys.length - 1;
+            int slot = index(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                count++;
+            }
+            if (win && (won[slot] == 0 || n < won[slot]))
+                won[slot] = (byte) n;
+            if (!win && n > held[slot])
+                held[slot] = (byte) n;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            byte[] oldWon = won;
+            byte[] oldHeld = held;
+            keys = new long[oldKeys.length * 2];
+            won = new byte[keys.length];
+            held = new byte[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0)
+                    continue;
+                int slot = index(oldKeys[i], mask);
+                while (keys[slot] != 0)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                won[slot] = oldWon[i];
+                held[slot] = oldHeld[i];
+            }
+        }
+
+        private static int index(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        long bytes() {
+            return keys.length * (8L + 1 + 1);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The evaluation AIPlayer scores the leaves of its search with, from Mr X's point of view - higher is
+ * better for Mr X. A score is a weighted sum of:
+ * <ul>
+ *   <li>nearest  - the distance from Mr X to the nearest detective</li>
+ *   <li>total    - the distances from Mr X to every detective, added up</li>
+ *   <li>mobility - the nodes Mr X can move to that no detective can reach next move</li>
+ *   <li>secret   - Mr X's Secret tickets</li>
+ *   <li>double   - Mr X's Double tickets</li>
+ *   <li>reveal   - the distance to the nearest detective again, divided by the number of Mr X's
+ *                  moves before the next reveal, so it counts for more when he is about to be seen</li>
+ * </ul>
+ * Distances come from the precomputed DistanceOracle, using only the transports each detective
+ * still has tickets for, and are capped at MAX_DISTANCE. Scoring allocates nothing and an Evaluation
+ * never changes, so every search thread can use the same one.
+ *
+ * The weights can be loaded from a properties file with those six names as keys, so that self-play
+ * can try out different sets of weights; any weight left out keeps its default.
+ */
+public class Evaluation {
+
+    public static final String[] WEIGHTS = {"nearest", "total", "mobility", "secret", "double", "reveal"};
+    private static final double[] DEFAULT_WEIGHTS = {2.0, 0.5, 0.5, 0.3, 0.5, 1.0};
+    public static final int MAX_DISTANCE = 10; //a detective further away than this (or who can't get to Mr X) doesn't matter
+
+    private static final int TAXI = PackedState.indexOf(Ticket.Taxi);
+    private static final int BUS = PackedState.indexOf(Ticket.Bus);
+    private static final int UNDERGROUND = PackedState.indexOf(Ticket.Underground);
+    private static final int MAX_EDGES = 64; //edges of a node the mobility term looks at, one bit each
+
+    private final double nearestWeight;
+    private final double totalWeight;
+    private final double mobilityWeight;
+    private final double secretWeight;
+    private final double doubleWeight;
+    private final double revealWeight;
+
+    /**
+     * Constructs an evaluation with the given weights, in the order of WEIGHTS.
+     *
+     * @param weights the six weights.
+     */
+    public Evaluation(double... weights) {
+        if (weights.length != WEIGHTS.length)
+            throw new IllegalArgumentException("Expected " + WEIGHTS.length + " weights, got " + weights.length);
+        this.nearestWeight = weights[0];
+        this.totalWeight = weights[1];
+        this.mobilityWeight = weights[2];
+        this.secretWeight = weights[3];
+        this.doubleWeight = weights[4];
+        this.revealWeight = weights[5];
+    }
+
+    public static Evaluation defaults() {
+        return new Evaluation(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Reads the weights from properties, keeping the default for any that is missing.
+     *
+     * @param properties the weights, keyed by the names in WEIGHTS.
+     * @return the evaluation.
+     * @throws IllegalArgumentException if there is a key that isn't a weight, or a weight that isn't a number.
+     */
+    public static Evaluation fromProperties(Properties properties) {
+        double[] weights = DEFAULT_WEIGHTS.clone();
+        List<String> names = Arrays.asList(WEIGHTS);
+        for (String key : properties.stringPropertyNames()) {
+            int weight = names.indexOf(key);
+            if (weight < 0)
+                throw new IllegalArgumentException("Unknown evaluation weight " + key + ", expected one of " + names);
+            try {
+                weights[weight] = Double.parseDouble(properties.getProperty(key).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Weight " + key + " isn't a number: " + properties.getProperty(key));
+            }
+        }
+        return new Evaluation(weights);
+    }
+
+    /**
+     * Loads the weights from a properties file.
+     *
+     * @param file the file.
+     * @return the evaluation.
+     * @throws IOException if the file can't be read.
+     */
+    public static Evaluation load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader in = new FileReader(file)) {
+            properties.load(in);
+        }
+        return fromProperties(properties);
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        double[] weights = getWeights();
+        for (int i = 0; i < WEIGHTS.length; i++)
+            properties.setProperty(WEIGHTS[i], Double.toString(weights[i]));
+        return properties;
+    }
+
+    public double[] getWeights() {
+        return new double[]{nearestWeight, totalWeight, mobilityWeight, secretWeight, doubleWeight, revealWeight};
+    }
+
+    /**
+     * Scores a position for Mr X.
+     *
+     * @param game        the position.
+     * @param mrXLocation where Mr X is.
+     * @param distances   the distances between the nodes of the game's board.
+     * @return the score; higher is better for Mr X.
+     */
+    public double score(CustomScotlandYard game, int mrXLocation, DistanceOracle distances) {
+        CompactGraph graph = game.adjacency;
+        CustomPlayerData mrX = null;
+        for (int i = 0; i < game.players.size(); i++) {
+            if (game.players.get(i).getColour() == Colour.Black)
+                mrX = game.players.get(i);
+        }
+        Map<Ticket, Integer> mrXTickets = mrX.getTickets();
+        int taxi = count(mrXTickets, Ticket.Taxi);
+        int bus = count(mrXTickets, Ticket.Bus);
+        int underground = count(mrXTickets, Ticket.Underground);
+        int secret = count(mrXTickets, Ticket.Secret);
+
+        //The edges Mr X has a ticket for, one bit per edge from the first edge of his node
+        int firstEdge = graph.start(mrXLocation);
+        int lastEdge = Math.min(graph.end(mrXLocation), firstEdge + MAX_EDGES);
+        long usable = 0;
+        for (int edge = firstEdge; edge < lastEdge; edge++) {
+            int ticket = graph.ticketIndex(edge);
+            if (secret > 0 || (ticket == TAXI && taxi > 0) || (ticket == BUS && bus > 0) || (ticket == UNDERGROUND && underground > 0))
+                usable |= 1L << (edge - firstEdge);
+        }
+
+        int nearest = MAX_DISTANCE;
+        int total = 0;
+        long unsafe = 0; //edges leading somewhere a detective can be next move
+        for (int i = 0; i < game.players.size(); i++) {
+            CustomPlayerData detective = game.players.get(i);
+            if (detective == mrX)
+                continue;
+            int transports = DistanceOracle.transportsOf(detective.getTickets());
+            int location = detective.getLocation();
+            int distance = Math.min(distances.distance(location, mrXLocation, transports), MAX_DISTANCE);
+            nearest = Math.min(nearest, distance);
+            total += distance;
+            for (long bits = usable & ~unsafe; bits != 0; bits &= bits - 1) {
+                int edge = firstEdge + Long.numberOfTrailingZeros(bits);
+                if (distances.distance(location, graph.target(edge), transports) <= 1)
+                    unsafe |= Long.lowestOneBit(bits);
+            }
+        }
+
+        //Nodes rather than edges - two edges (a taxi and a bus, say) to the same node are one place to go
+        int mobility = 0;
+        long safe = usable & ~unsafe;
+        for (long bits = safe; bits != 0; bits &= bits - 1) {
+            int offset = Long.numberOfTrailingZeros(bits);
+            int target = graph.target(firstEdge + offset);
+            boolean seen = false;
+            for (long earlier = safe & ((1L << offset) - 1); earlier != 0 && !seen; earlier &= earlier - 1)
+                seen = graph.target(firstEdge + Long.numberOfTrailingZeros(earlier)) == target;
+            if (!seen)
+                mobility++;
+        }
+
+        double score = nearestWeight * nearest + totalWeight * total + mobilityWeight * mobility
+                + secretWeight * secret + doubleWeight * count(mrXTickets, Ticket.Double);
+        int movesBeforeReveal = movesBeforeReveal(game);
+        if (movesBeforeReveal >= 0)
+            score += revealWeight * nearest / (movesBeforeReveal + 1);
+        return score;
+    }
+
+    //Mr X's moves before the one that will be revealed (0 if his next move is), or -1 if he won't be seen again
+    private static int movesBeforeReveal(CustomScotlandYard game) {
+        List<Boolean> rounds = game.getRounds();
+        for (int round = game.getRound() + 1; round < rounds.size(); round++) {
+            if (rounds.get(round))
+                return round - game.getRound() - 1;
+        }
+        return -1;
+    }
+
+    private static int count(Map<Ticket, Integer> tickets, Ticket ticket) {
+        Integer count = tickets.get(ticket);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public String toString() {
+        return "Evaluation" + toProperties();
+    }
+}
@@ -0,0 +1,75 @@
+package player;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with buckets doubling in width from one microsecond, so it covers
+ * anything from microseconds to hours in 40 counters with at most a factor of two error.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 1);
+        int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        counts[bucket]++;
+        count++;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Returns the duration below which the given share of recorded durations fall.
+     *
+     * @param percentile the share, from 0 to 100.
+     * @return the upper edge of the bucket holding that percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank)
+                return Math.min((2000L << bucket), max);
+        }
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencyHistogram[count=" + count + ", p50=" + getPercentile(50) / 1000000 + "ms, p90=" + getPercentile(90) / 1000000
+                + "ms, p99=" + getPercentile(99) / 1000000 + "ms, max=" + max / 1000000 + "ms]";
+    }
+}
@@ -0,0 +1,326 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * An alternative to AIPlayer that picks moves by Monte Carlo tree search rather than minimax.
+ * Each iteration walks down the tree by UCT, adds the children of the leaf it reaches, plays the game
+ * out from there with quick heuristic moves, and credits the result to every node on the way.
+ * The move played is the most visited child of the root.
+ *
+ * Everything happens on one CustomScotlandYard with packed moves made and unmade, so an iteration
+ * allocates nothing. The tree is kept between turns: the next search starts from the node the game
+ * actually reached, if the tree got that far. Unless it is given a size, the tree is made at the first
+ * search with room for what that search's time limit can grow, so short searches don't hold a large pool.
+ */
+public class MCTSPlayer implements Player {
+
+    public static final long DEFAULT_TIME_LIMIT = 5000; //milliseconds per move
+    public static final int TREE_NODES_PER_MILLISECOND = 64; //about what a search grows, on one core
+    public static final int MIN_TREE_NODES = 1 << 12;
+    public static final int MAX_TREE_NODES = 1 << 20;         //about 52MB
+    public static final double DEFAULT_EXPLORATION = 1.0;
+    public static final double DEFAULT_RANDOM_MOVES = 0.2; //chance of a random rather than greedy playout move
+    private static final int MAX_PLAYOUT_MOVES = 1000;
+    private static final Logger log = Logger.getLogger("player.search");
+
+    private ScotlandYardGraph graph;
+    private DistanceOracle distances;
+    private boolean mrX;
+    private MrXTracker tracker; //where Mr X could be, for detectives
+    private int treeNodes; //0 to size the tree from the time limit
+    private MCTSTree tree; //null until the first search
+    private final SplittableRandom random = new SplittableRandom();
+    private final MoveList moves = new MoveList();
+
+    private long timeLimit = DEFAULT_TIME_LIMIT;
+    private long playoutLimit = Long.MAX_VALUE;
+    private double exploration = DEFAULT_EXPLORATION;
+    private double randomMoves = DEFAULT_RANDOM_MOVES;
+
+    //The root position and chosen child of the last search, to find where the game has got to since
+    private PackedState lastRoot;
+    private List<Boolean> lastRounds;
+    private int lastChoice = MCTSTree.NONE;
+    private long playouts = 0;
+
+    public MCTSPlayer(boolean mrX, ScotlandYardView view, String graphFilename) throws IOException {
+        this(mrX, view, graphFilename, 0);
+    }
+
+    //A tree of the given number of nodes, or 0 to size it from the time limit
+    public MCTSPlayer(boolean mrX, ScotlandYardView view, String graphFilename, int treeNodes) throws IOException {
+        if (treeNodes < 0)
+            throw new IllegalArgumentException("Tree size can't be negative, got " + treeNodes);
+        CompiledGraph compiled = CompiledGraph.forGraph(graphFilename);
+        this.graph = compiled.getGraph();
+        this.distances = compiled.getDistances(graphFilename);
+        this.mrX = mrX;
+        this.treeNodes = treeNodes;
+        if (!mrX && view != null)
+            this.tracker = new MrXTracker(view, CompactGraph.of(graph));
+    }
+
+    @Override
+    public void notify(int location, List<Move> validMoves, Integer token, Receiver receiver) {
+        ScotlandYardView game = (ScotlandYardView) receiver;
+        int mrXLocation;
+        if (mrX)
+            mrXLocation = location;
+        else if (tracker != null && tracker.getRound() == game.getRound())
+            mrXLocation = tracker.farthestFromDetectives(distances);
+        else
+            mrXLocation = game.getPlayerLocation(Colour.Black);
+
+        CustomScotlandYard board = PackedState.fromView(game, mrXLocation).toGame(graph, game.getRounds());
+        Move move = search(board, validMoves);
+        receiver.playMove(move, token);
+    }
+
+    /**
+     * Searches a position for the best move, until the time or playout limit is reached.
+     *
+     * @param board      the position, with the player to move as its current player. Left as it was found.
+     * @param validMoves the moves the game allows, one of which is returned.
+     * @return the move to play.
+     */
+    public Move search(CustomScotlandYard board, List<Move> validMoves) {
+        if (tree == null)
+            tree = new MCTSTree(treeNodes > 0 ? treeNodes : (int) Math.max(MIN_TREE_NODES, Math.min(MAX_TREE_NODES, timeLimit * TREE_NODES_PER_MILLISECOND)));
+        long start = System.nanoTime();
+        long deadline = start + timeLimit * 1000000L;
+        boolean reused = reuseTree(board);
+        int reusedNodes = tree.size();
+
+        long count = 0;
+        do {
+            iterate(board);
+            count++;
+        } while (count < playoutLimit && System.nanoTime() < deadline);
+        playouts = count;
+
+        //Play the most visited move the game allows
+        int best = MCTSTree.NONE;
+        if (tree.isExpanded(MCTSTree.ROOT)) {
+            int first = tree.firstChild(MCTSTree.ROOT);
+            for (int child = first; child < first + tree.childCount(MCTSTree.ROOT); child++) {
+                if (best == MCTSTree.NONE || tree.visits(child) > tree.visits(best))
+                    best = child;
+            }
+        }
+        Move move = validMoves.get(0);
+        if (best != MCTSTree.NONE) {
+            int packed = tree.move(best);
+            for (Move valid : validMoves) {
+                if (PackedMove.fromMove(valid) == packed) {
+                    move = valid;
+                    break;
+                }
+            }
+        }
+        lastRoot = PackedState.fromGame(board);
+        lastRounds = board.getRounds();
+        lastChoice = best;
+
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        log.fine(String.format(Locale.ROOT, "{\"event\":\"mcts\",\"player\":\"%s\",\"millis\":%d,\"playouts\":%d,\"playoutsPerSecond\":%d,"
+                        + "\"treeNodes\":%d,\"reusedNodes\":%d}",
+                mrX ? "mrX" : "detective", elapsed / 1000000, count, count * 1000000000L / elapsed, tree.size(), reused ? reusedNodes : 0));
+        return move;
+    }
+
+    //Re-roots the tree at the current position if the last search reached it, otherwise starts again.
+    //Every other player has moved once since our last move, so the position is that many plies below our choice
+    private boolean reuseTree(CustomScotlandYard board) {
+        int node = MCTSTree.NONE;
+        if (lastRoot != null && lastChoice != MCTSTree.NONE) {
+            CustomScotlandYard lastBoard = lastRoot.toGame(graph, lastRounds);
+            lastBoard.makeMove(tree.move(lastChoice));
+            node = find(lastBoard, lastChoice, board.getPlayers().size() - 1, board.getHash());
+        }
+        lastRoot = null;
+        lastChoice = MCTSTree.NONE;
+        if (node == MCTSTree.NONE) {
+            tree.clear();
+            return false;
+        }
+        tree.reroot(node);
+        return true;
+    }
+
+    private int find(CustomScotlandYard board, int node, int plies, long hash) {
+        if (plies == 0)
+            return board.getHash() == hash ? node : MCTSTree.NONE;
+        if (!tree.isExpanded(node))
+            return MCTSTree.NONE;
+        int first = tree.firstChild(node);
+        for (int child = first; child < first + tree.childCount(node); child++) {
+            board.makeMove(tree.move(child));
+            int found = find(board, child, plies - 1, hash);
+            board.unmakeMove();
+            if (found != MCTSTree.NONE)
+                return found;
+        }
+        return MCTSTree.NONE;
+    }
+
+    //One iteration: select, expand, play out and back up
+    private void iterate(CustomScotlandYard board) {
+        int node = MCTSTree.ROOT;
+        int depth = 0;
+        while (tree.isExpanded(node) && tree.childCount(node) > 0) {
+            node = select(node);
+            board.makeMove(tree.move(node));
+            depth++;
+        }
+
+        //Grow the tree by the leaf's children once the leaf has been visited before
+        if (!tree.isExpanded(node) && (node == MCTSTree.ROOT || tree.visits(node) > 0)) {
+            board.generateMoves(board.getCurrentPlayer(), moves, true);
+            if (board.getStatus(moves) == CustomScotlandYard.NOT_OVER && tree.expand(node, moves)) {
+                node = tree.firstChild(node) + random.nextInt(tree.childCount(node));
+                board.makeMove(tree.move(node));
+                depth++;
+            }
+        }
+
+        int plies = 0;
+        int status;
+        while (true) {
+            board.generateMoves(board.getCurrentPlayer(), moves, true);
+            status = board.getStatus(moves);
+            if (status != CustomScotlandYard.NOT_OVER || plies == MAX_PLAYOUT_MOVES)
+                break;
+            board.makeMove(playoutMove(board, moves));
+            plies++;
+        }
+        for (int i = 0; i < plies + depth; i++)
+            board.unmakeMove();
+
+        //Mr X wins unless he is caught or stuck, so a playout cut short counts as his
+        float mrXReward = status == CustomScotlandYard.DETECTIVES_WIN ? 0 : 1;
+        for (; node != MCTSTree.NONE; node = tree.parent(node)) {
+            int move = tree.move(node);
+            boolean movedByMrX = move != PackedMove.NONE && PackedMove.colour(move) == 0;
+            tree.update(node, movedByMrX ? mrXReward : 1 - mrXReward);
+        }
+    }
+
+    //UCT - the child with the best win rate plus a bonus for being rarely tried; untried children come first
+    private int select(int node) {
+        int first = tree.firstChild(node);
+        double logVisits = Math.log(Math.max(tree.visits(node), 1));
+        int best = first;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < first + tree.childCount(node); child++) {
+            int visits = tree.visits(child);
+            if (visits == 0)
+                return child;
+            double value = tree.wins(child) / visits + exploration * Math.sqrt(logVisits / visits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    //Mostly greedy: Mr X runs from the nearest detective, detectives close in on Mr X
+    private int playoutMove(CustomScotlandYard board, MoveList moves) {
+        if (moves.size() == 1 || random.nextDouble() < randomMoves)
+            return moves.get(random.nextInt(moves.size()));
+        int best = moves.get(0);
+        if (PackedMove.kind(best) == PackedMove.PASS)
+            return best;
+        boolean mrXToMove = board.getCurrentPlayer() == Colour.Black;
+        int mrXLocation = board.getPlayerLocation(Colour.Black);
+        int bestScore = Integer.MIN_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            //Mr X spends no Double or Secret tickets on a greedy move
+            if (mrXToMove && (PackedMove.kind(move) == PackedMove.DOUBLE || PackedState.TICKETS[PackedMove.ticket1(move)] == Ticket.Secret))
+                continue;
+            int target = PackedMove.finalTarget(move);
+            int score;
+            if (mrXToMove)
+                score = nearestDetective(board, target);
+            else
+                score = -distances.distance(target, mrXLocation, DistanceOracle.ALL_TRANSPORTS);
+            if (score > bestScore) {
+                bestScore = score;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private int nearestDetective(CustomScotlandYard board, int node) {
+        int nearest = DistanceOracle.UNREACHABLE;
+        for (CustomPlayerData player : board.players) {
+            if (player.getColour() != Colour.Black)
+                nearest = Math.min(nearest, distances.distance(player.getLocation(), node, DistanceOracle.ALL_TRANSPORTS));
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the tracker of where Mr X could be, which has to be added to the game as a spectator.
+     *
+     * @return the tracker, or null for Mr X.
+     */
+    public MrXTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Returns the number of playouts run by the last search.
+     *
+     * @return the number of playouts.
+     */
+    public long getPlayouts() {
+        return playouts;
+    }
+
+    /**
+     * Sets the wall-clock time each move may spend searching. A tree sized from the time limit takes the
+     * limit set when the first search starts.
+     *
+     * @param timeLimit the time limit in milliseconds.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Sets the most playouts each move may run, whatever time is left.
+     *
+     * @param playoutLimit the playout limit.
+     */
+    public void setPlayoutLimit(long playoutLimit) {
+        if (playoutLimit < 1)
+            throw new IllegalArgumentException("Need at least one playout, got " + playoutLimit);
+        this.playoutLimit = playoutLimit;
+    }
+
+    /**
+     * Sets the UCT exploration constant: higher values try rarely visited moves more often.
+     *
+     * @param exploration the exploration constant.
+     */
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    /**
+     * Sets how often a playout move is chosen at random rather than greedily.
+     *
+     * @param randomMoves the chance of a random move, from 0 to 1.
+     */
+    public void setRandomMoves(double randomMoves) {
+        this.randomMoves = randomMoves;
+    }
+}
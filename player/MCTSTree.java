@@ -0,0 +1,206 @@
+package player;
+
+/**
+ * The search tree of MCTSPlayer, kept as a pool of nodes in parallel primitive arrays so that
+ * growing the tree allocates nothing. A node is an index into the arrays; the children of a node
+ * are always allocated together, as the consecutive nodes firstChild to firstChild + childCount - 1.
+ *
+ * The pool has a fixed capacity. When it is full the tree stops growing, and the search carries on
+ * with playouts from the leaves it has. Between turns reroot() keeps just the subtree the game went
+ * down, copying it into a second pool and swapping the two, so the memory of the rest is reused.
+ */
+class MCTSTree {
+
+    static final int ROOT = 0;
+    static final int NONE = -1;
+
+    private int[] moves;      //the packed move leading to the node
+    private int[] parents;
+    private int[] firstChild; //NONE until the node is expanded
+    private int[] childCount;
+    private int[] visits;
+    private float[] wins;     //for the side that made the move leading to the node
+    private int size;
+
+    //The pool reroot() copies into
+    private int[] spareMoves;
+    private int[] spareParents;
+    private int[] spareFirstChild;
+    private int[] spareChildCount;
+    private int[] spareVisits;
+    private float[] spareWins;
+    private int[] queue;
+
+    /**
+     * Constructs a tree holding just a root node.
+     *
+     * @param capacity the most nodes the tree can hold.
+     */
+    MCTSTree(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Tree needs room for at least one node, got " + capacity);
+        moves = new int[capacity];
+        parents = new int[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        visits = new int[capacity];
+        wins = new float[capacity];
+        spareMoves = new int[capacity];
+        spareParents = new int[capacity];
+        spareFirstChild = new int[capacity];
+        spareChildCount = new int[capacity];
+        spareVisits = new int[capacity];
+        spareWins = new float[capacity];
+        queue = new int[capacity];
+        clear();
+    }
+
+    /**
+     * Throws the whole tree away, leaving just an unexpanded root.
+     */
+    void clear() {
+        size = 1;
+        moves[ROOT] = PackedMove.NONE;
+        parents[ROOT] = NONE;
+        firstChild[ROOT] = NONE;
+        childCount[ROOT] = 0;
+        visits[ROOT] = 0;
+        wins[ROOT] = 0;
+    }
+
+    /**
+     * Adds a child for each move of a leaf.
+     *
+     * @param node      the leaf.
+     * @param nodeMoves the moves of the position at the leaf.
+     * @return false if the pool has no room for the children.
+     */
+    boolean expand(int node, MoveList nodeMoves) {
+        int count = nodeMoves.size();
+        if (size + count > moves.length)
+            return false;
+        firstChild[node] = size;
+        childCount[node] = count;
+        for (int i = 0; i < count; i++) {
+            int child = size++;
+            moves[child] = nodeMoves.get(i);
+            parents[child] = node;
+            firstChild[child] = NONE;
+            childCount[child] = 0;
+            visits[child] = 0;
+            wins[child] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Makes a node the root, keeping only its subtree. The subtree is copied breadth first into
+     * the spare pool, which keeps every node's children consecutive, and the pools are swapped.
+     *
+     * @param node the new root.
+     */
+    void reroot(int node) {
+        if (node == ROOT)
+            return;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = node;
+        int copied = 1;
+        copy(node, 0, NONE);
+        //Nodes are copied in the order they are queued, so queue index and new index are the same
+        while (head < tail) {
+            int old = queue[head];
+            int index = head++;
+            if (firstChild[old] == NONE)
+                continue;
+            spareFirstChild[index] = copied;
+            for (int i = 0; i < childCount[old]; i++) {
+                int child = firstChild[old] + i;
+                copy(child, copied++, index);
+                queue[tail++] = child;
+            }
+        }
+
+        int[] intSwap = moves;
+        moves = spareMoves;
+        spareMoves = intSwap;
+        intSwap = parents;
+        parents = spareParents;
+        spareParents = intSwap;
+        intSwap = firstChild;
+        firstChild = spareFirstChild;
+        spareFirstChild = intSwap;
+        intSwap = childCount;
+        childCount = spareChildCount;
+        spareChildCount = intSwap;
+        intSwap = visits;
+        visits = spareVisits;
+        spareVisits = intSwap;
+        float[] floatSwap = wins;
+        wins = spareWins;
+        spareWins = floatSwap;
+        size = copied;
+        moves[ROOT] = PackedMove.NONE;
+    }
+
+    private void copy(int from, int to, int parent) {
+        spareMoves[to] = moves[from];
+        spareParents[to] = parent;
+        spareFirstChild[to] = NONE;
+        spareChildCount[to] = childCount[from];
+        spareVisits[to] = visits[from];
+        spareWins[to] = wins[from];
+    }
+
+    /**
+     * Records the result of a playout through a node.
+     *
+     * @param node   the node.
+     * @param reward the reward for the side that made the move leading to the node, from 0 to 1.
+     */
+    void update(int node, float reward) {
+        visits[node]++;
+        wins[node] += reward;
+    }
+
+    boolean isExpanded(int node) {
+        return firstChild[node] != NONE;
+    }
+
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    int childCount(int node) {
+        return childCount[node];
+    }
+
+    int move(int node) {
+        return moves[node];
+    }
+
+    int parent(int node) {
+        return parents[node];
+    }
+
+    int visits(int node) {
+        return visits[node];
+    }
+
+    float wins(int node) {
+        return wins[node];
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return the number of nodes in use.
+     */
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return moves.length;
+    }
+}
@@ -0,0 +1,170 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * Decides the order a search worker tries the moves of a node in, so alpha-beta cutoffs come early.
+ * In order: the best move the transposition table remembers for the position, then captures
+ * (moves landing on Mr X), then the killer moves of the ply - quiet moves that caused a cutoff in a
+ * sibling node - and finally the rest, by how often they have caused cutoffs anywhere in the tree
+ * (the history table, indexed by colour, target node and ticket). Among the rest, moves that don't
+ * spend a Secret ticket come before those that do.
+ *
+ * Moves keep their generated order in the MoveList, since the table remembers best moves by their
+ * generated index; pick() hands back indices in the order they should be tried instead.
+ * Ties keep their generated order. Mr X's double moves are generated in a later stage than his
+ * single moves, and are only ordered - with order() from the end of the singles - once the search
+ * has tried every single move.
+ */
+class MoveOrdering {
+
+    private static final int HASH_MOVE = 1 << 30;
+    private static final int CAPTURE = 1 << 29;
+    private static final int KILLER = 1 << 28;
+    private static final int NOT_SECRET = 1 << 27;
+    private static final int HISTORY_LIMIT = NOT_SECRET; //history is halved before it could lift a move a tier
+
+    private static final int TICKETS = PackedState.TICKETS.length;
+    private static final int DOUBLE = PackedState.indexOf(Ticket.Double);
+    private static final int SECRET = PackedState.indexOf(Ticket.Secret);
+
+    private final int[] history = new int[PackedState.COLOURS.length * Zobrist.MAX_NODE * TICKETS];
+    private int[][] killers = new int[AIPlayer.DEFAULT_MAX_DEPTH + 2][2];
+    private int[][] order = new int[AIPlayer.DEFAULT_MAX_DEPTH + 2][];
+    private int[][] keys = new int[AIPlayer.DEFAULT_MAX_DEPTH + 2][];
+
+    /**
+     * Works out the order to try a node's moves in. Must be called before pick() for the ply, and
+     * again for each later stage of moves added to the end of the list.
+     *
+     * @param ply         the ply of the node.
+     * @param moves       the moves of the node, in generated order.
+     * @param from        the index of the first move to order: 0, or the first move of a later stage.
+     * @param hashMove    the index of the move the transposition table remembers, or -1.
+     * @param mrXLocation the node Mr X is believed to be on.
+     */
+    void order(int ply, MoveList moves, int from, int hashMove, int mrXLocation) {
+        int size = moves.size();
+        ensurePly(ply, size);
+        int[] plyOrder = order[ply];
+        int[] plyKeys = keys[ply];
+        int[] plyKillers = killers[ply];
+        for (int i = from; i < size; i++) {
+            int move = moves.get(i);
+            int key;
+            if (i == hashMove)
+                key = HASH_MOVE;
+            else if (PackedMove.kind(move) != PackedMove.PASS && PackedMove.finalTarget(move) == mrXLocation)
+                key = CAPTURE;
+            else if (move == plyKillers[0])
+                key = KILLER + 1;
+            else if (move == plyKillers[1])
+                key = KILLER;
+            else if (PackedMove.ticket1(move) == SECRET || PackedMove.ticket2(move) == SECRET)
+                key = history[historyIndex(move)];
+            else
+                key = NOT_SECRET + history[historyIndex(move)];
+            plyOrder[i] = i;
+            plyKeys[i] = key;
+        }
+    }
+
+    /**
+     * Returns the n-th move to try. Moves are picked by selection as they are needed, since after
+     * a cutoff the rest never are.
+     *
+     * @param ply  the ply of the node.
+     * @param n    how many moves of the node have been picked already.
+     * @param size the number of moves of the node.
+     * @return the generated index of the move to try next.
+     */
+    int pick(int ply, int n, int size) {
+        int[] plyOrder = order[ply];
+        int[] plyKeys = keys[ply];
+        int best = n;
+        for (int i = n + 1; i < size; i++) {
+            if (plyKeys[i] > plyKeys[best] || (plyKeys[i] == plyKeys[best] && plyOrder[i] < plyOrder[best]))
+                best = i;
+        }
+        int index = plyOrder[best];
+        int key = plyKeys[best];
+        plyOrder[best] = plyOrder[n];
+        plyKeys[best] = plyKeys[n];
+        plyOrder[n] = index;
+        plyKeys[n] = key;
+        return index;
+    }
+
+    /**
+     * Records a move that caused a cutoff.
+     *
+     * @param ply     the ply of the node.
+     * @param move    the packed move.
+     * @param depth   the depth the node was searched to; deeper cutoffs count for more.
+     * @param capture whether the move landed on Mr X.
+     */
+    void cutoff(int ply, int move, int depth, boolean capture) {
+        if (capture)
+            return;
+        int[] plyKillers = killers[ply];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+        int index = historyIndex(move);
+        history[index] += depth * depth;
+        if (history[index] >= HISTORY_LIMIT)
+            age();
+    }
+
+    /**
+     * Starts the search for a new move: killers are forgotten, and history counts halved so that
+     * what was learnt about the last position still helps without outweighing the new one.
+     */
+    void newSearch() {
+        for (int[] plyKillers : killers)
+            Arrays.fill(plyKillers, PackedMove.NONE);
+        age();
+    }
+
+    /**
+     * Forgets everything: killers and history.
+     */
+    void clear() {
+        for (int[] plyKillers : killers)
+            Arrays.fill(plyKillers, PackedMove.NONE);
+        Arrays.fill(history, 0);
+    }
+
+    private void age() {
+        for (int i = 0; i < history.length; i++)
+            history[i] >>= 1;
+    }
+
+    private static int historyIndex(int move) {
+        int ticket = PackedMove.kind(move) == PackedMove.DOUBLE ? DOUBLE : PackedMove.ticket1(move);
+        return (PackedMove.colour(move) * Zobrist.MAX_NODE + PackedMove.finalTarget(move)) * TICKETS + ticket;
+    }
+
+    private void ensurePly(int ply, int size) {
+        if (ply >= killers.length) {
+            int length = ply + 1;
+            int oldLength = killers.length;
+            killers = Arrays.copyOf(killers, length);
+            for (int i = oldLength; i < length; i++)
+                killers[i] = new int[2];
+            order = Arrays.copyOf(order, length);
+            keys = Arrays.copyOf(keys, length);
+        }
+        if (order[ply] == null) {
+            order[ply] = new int[Math.max(size, 64)];
+            keys[ply] = new int[Math.max(size, 64)];
+        } else if (order[ply].length < size) {
+            //Keep what is there - a later stage is ordered after the moves already being picked from
+            order[ply] = Arrays.copyOf(order[ply], Math.max(size, order[ply].length * 2));
+            keys[ply] = Arrays.copyOf(keys[ply], order[ply].length);
+        }
+    }
+}
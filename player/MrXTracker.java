@@ -0,0 +1,270 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * Keeps track of every node Mr X could be on, as seen by the detectives.
+ * The set is a bitset over the graph's nodes, updated move by move: a ticket Mr X plays moves the
+ * set one step along the edges that ticket allows, a reveal round narrows it to the revealed node,
+ * and nodes detectives stand on are taken out of it. Each update costs one pass over the edges of
+ * the nodes in the set, so nothing is ever recomputed from the start of the game.
+ *
+ * The tracker is a Spectator, so the game can feed it every move as it is played.
+ */
+public class MrXTracker implements Spectator {
+
+    private final ScotlandYardView view;
+    private final CompactGraph graph;
+    private final List<Boolean> rounds;
+    private long[] possible;
+    private long[] next; //scratch set for updates, swapped with possible
+    private int round;
+
+    //A double move may be announced as a whole and then as its two halves; the halves are skipped
+    private final Deque<MoveTicket> expectedHalves = new ArrayDeque<>();
+
+    /**
+     * Constructs a tracker for a game at view.getRound(). Unless Mr X has just been revealed,
+     * he could be on any node without a detective on it.
+     *
+     * @param view  the view of the game, used for the reveal rounds and the detectives' locations.
+     * @param graph the board.
+     */
+    public MrXTracker(ScotlandYardView view, CompactGraph graph) {
+        this.view = view;
+        this.graph = graph;
+        this.rounds = view.getRounds();
+        int words = (graph.getSize() + 63) >>> 6;
+        this.possible = new long[words];
+        this.next = new long[words];
+        this.round = view.getRound();
+        int location = view.getPlayerLocation(Colour.Black);
+        if (isRevealRound(round) && location > 0)
+            reveal(location);
+        else
+            reset();
+    }
+
+    /**
+     * Forgets everything about Mr X: he could be on any node without a detective on it.
+     */
+    public void reset() {
+        Arrays.fill(possible, 0);
+        for (int node = 0; node < graph.getSize(); node++) {
+            if (graph.start(node) != graph.end(node))
+                possible[node >>> 6] |= 1L << node;
+        }
+        excludeDetectives(possible);
+    }
+
+    /**
+     * Narrows the set down to the node Mr X was seen on.
+     *
+     * @param location the revealed location of Mr X.
+     */
+    public void reveal(int location) {
+        Arrays.fill(possible, 0);
+        possible[location >>> 6] |= 1L << location;
+    }
+
+    /**
+     * Updates the set after Mr X plays a ticket. If the round the ticket is played in is a
+     * reveal round the set becomes the revealed node, otherwise every node one edge of that
+     * ticket's transport away (any transport for a Secret ticket) that no detective stands on.
+     *
+     * @param ticket the ticket Mr X played.
+     * @param target the target shown for the move; only used in reveal rounds.
+     */
+    public void playTicket(Ticket ticket, int target) {
+        round++;
+        if (isRevealRound(round)) {
+            reveal(target);
+            return;
+        }
+        Arrays.fill(next, 0);
+        for (int word = 0; word < possible.length; word++) {
+            long bits = possible[word];
+            while (bits != 0) {
+                int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                for (int edge = graph.start(node); edge < graph.end(node); edge++) {
+                    if (ticket == Ticket.Secret || graph.ticket(edge) == ticket) {
+                        int neighbour = graph.target(edge);
+                        next[neighbour >>> 6] |= 1L << neighbour;
+                    }
+                }
+            }
+        }
+        excludeDetectives(next);
+        long[] swap = possible;
+        possible = next;
+        next = swap;
+        //We must have missed something - start again rather than track nothing
+        if (size() == 0)
+            reset();
+    }
+
+    /**
+     * Takes a node out of the set, e.g. one a detective has just moved to without catching Mr X.
+     *
+     * @param node the node Mr X can't be on.
+     */
+    public void exclude(int node) {
+        if (node >= 0 && node < graph.getSize())
+            possible[node >>> 6] &= ~(1L << node);
+    }
+
+    private void excludeDetectives(long[] set) {
+        for (Colour colour : view.getPlayers()) {
+            if (colour == Colour.Black)
+                continue;
+            int node = view.getPlayerLocation(colour);
+            if (node >= 0 && node < graph.getSize())
+                set[node >>> 6] &= ~(1L << node);
+        }
+    }
+
+    private boolean isRevealRound(int round) {
+        return round < rounds.size() && rounds.get(round);
+    }
+
+    @Override
+    public void notify(Move move) {
+        if (move.colour != Colour.Black) {
+            expectedHalves.clear();
+            if (move instanceof MoveTicket)
+                exclude(((MoveTicket) move).target);
+            return;
+        }
+        if (move instanceof MoveDouble) {
+            MoveDouble moveDouble = (MoveDouble) move;
+            play(moveDouble.move1);
+            play(moveDouble.move2);
+            expectedHalves.clear();
+            expectedHalves.add(moveDouble.move1);
+            expectedHalves.add(moveDouble.move2);
+        } else if (move instanceof MoveTicket) {
+            MoveTicket moveTicket = (MoveTicket) move;
+            MoveTicket expected = expectedHalves.poll();
+            if (expected != null && expected.ticket == moveTicket.ticket && expected.target == moveTicket.target)
+                return;
+            expectedHalves.clear();
+            play(moveTicket);
+        }
+    }
+
+    private void play(MoveTicket move) {
+        playTicket(move.ticket, move.target);
+    }
+
+    /**
+     * Returns whether Mr X could be on a node.
+     *
+     * @param node the node.
+     * @return true if Mr X could be on the node.
+     */
+    public boolean contains(int node) {
+        return node >= 0 && node < graph.getSize() && (possible[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+     * Returns the first node at or after the given one that Mr X could be on, for walking the set:
+     * {@code for (int n = tracker.nextPossible(0); n >= 0; n = tracker.nextPossible(n + 1))}
+     *
+     * @param from the node to start looking from.
+     * @return the next node Mr X could be on, or -1 if there is none.
+     */
+    public int nextPossible(int from) {
+        int word = from >>> 6;
+        if (word >= possible.length)
+            return -1;
+        long bits = possible[word] & (-1L << from);
+        while (true) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            if (++word == possible.length)
+                return -1;
+            bits = possible[word];
+        }
+    }
+
+    /**
+     * Returns the possible location furthest from the nearest detective - the one Mr X would pick
+     * if he could, so the one worth planning against.
+     *
+     * @param distances the distances between nodes of the board.
+     * @return the possible location furthest from the detectives.
+     */
+    public int farthestFromDetectives(DistanceOracle distances) {
+        int best = nextPossible(0);
+        int bestDistance = -1;
+        for (int node = best; node >= 0; node = nextPossible(node + 1)) {
+            int nearest = DistanceOracle.UNREACHABLE;
+            for (Colour colour : view.getPlayers()) {
+                if (colour != Colour.Black)
+                    nearest = Math.min(nearest, distances.distance(view.getPlayerLocation(colour), node, DistanceOracle.ALL_TRANSPORTS));
+            }
+            if (nearest > bestDistance) {
+                bestDistance = nearest;
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of nodes Mr X could be on.
+     *
+     * @return the size of the set.
+     */
+    public int size() {
+        int size = 0;
+        for (long word : possible)
+            size += Long.bitCount(word);
+        return size;
+    }
+
+    /**
+     * Returns the nodes Mr X could be on.
+     *
+     * @return the nodes in the set, in increasing order.
+     */
+    public int[] toArray() {
+        int[] nodes = new int[size()];
+        int i = 0;
+        for (int node = nextPossible(0); node >= 0; node = nextPossible(node + 1))
+            nodes[i++] = node;
+        return nodes;
+    }
+
+    /**
+     * Returns a hash of the set and the round, so that positions the detectives see the same way can
+     * still be told apart by where Mr X could be.
+     *
+     * @return the hash of the set.
+     */
+    public long getHash() {
+        long hash = round;
+        for (long word : possible) {
+            hash = (hash ^ word) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the round the tracker has followed the game to.
+     *
+     * @return the number of tickets Mr X has played.
+     */
+    public int getRound() {
+        return round;
+    }
+
+    @Override
+    public String toString() {
+        return "MrXTracker[round=" + round + ", " + size() + " nodes]";
+    }
+}
@@ -0,0 +1,220 @@
+package player;
+
+import scotlandyard.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Best moves for positions from the first rounds of the game, searched offline (see Tester.BookBuilder)
+ * so the players can answer them without searching. The book is a file of fixed size entries sorted by
+ * position key, which is memory-mapped and binary searched, so loading it reads nothing but the header
+ * and a lookup touches a handful of pages.
+ *
+ * A position can have several entries, best first. Mr X's positions are keyed by their Zobrist hash;
+ * detectives don't know where Mr X is, so theirs are keyed by the position they can see (Mr X where he
+ * was last seen) together with the MrXTracker's set of where he could be.
+ *
+ * The file starts with a header - magic number, version, checksum of the graph file the book was built
+ * on, number of entries and search depth - followed by the entries, each a 64-bit key, a PackedMove and
+ * the move's score as a float.
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x53594F42; //"SYOB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int ENTRY_BYTES = 16;
+
+    private static final OpeningBook EMPTY = new OpeningBook(ByteBuffer.allocate(HEADER_BYTES), 0, 0);
+    private static final Map<String, OpeningBook> books = new ConcurrentHashMap<>();
+
+    private final ByteBuffer entries; //read with absolute gets only, so threads can share it
+    private final int size;
+    private final int depth;
+
+    private OpeningBook(ByteBuffer entries, int size, int depth) {
+        this.entries = entries;
+        this.size = size;
+        this.depth = depth;
+    }
+
+    /**
+     * Returns the book for a graph file - the file's name plus ".book" - mapping it the first time the graph
+     * is asked for. The book is empty if there is no such file, or it was built on a different graph.
+     *
+     * @param graphFilename the file the graph was read from.
+     * @return the book for the graph.
+     */
+    public static OpeningBook forGraph(String graphFilename) {
+        return books.computeIfAbsent(graphFilename, filename -> {
+            try {
+                //The compiled graph knows the graph file's checksum, so the file isn't read again to work it out
+                OpeningBook book = load(new File(filename + ".book"), CompiledGraph.forGraph(filename).getChecksum());
+                return book != null ? book : EMPTY;
+            } catch (IOException e) {
+                System.err.println("Could not read the opening book for " + filename + ": " + e.getMessage());
+                return EMPTY;
+            }
+        });
+    }
+
+    /**
+     * Maps a book written by save().
+     *
+     * @param file     the file to map.
+     * @param checksum the checksum of the graph file the book must have been built on.
+     * @return the book, or null if the file is missing or was built on a different graph.
+     * @throws IOException if the file can't be read, or isn't a whole book.
+     */
+    public static OpeningBook load(File file, long checksum) throws IOException {
+        if (!file.isFile())
+            return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IOException(file + " is too short to be an opening book");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != checksum)
+                return null;
+            int size = buffer.getInt(16);
+            if (channel.size() != HEADER_BYTES + (long) size * ENTRY_BYTES)
+                throw new IOException(file + " should hold " + size + " entries but is " + channel.size() + " bytes long");
+            return new OpeningBook(buffer, size, buffer.getInt(20));
+        }
+    }
+
+    /**
+     * Writes a book. Entries are sorted by key; entries with the same key keep their order, best first.
+     *
+     * @param file     the file to write.
+     * @param checksum the checksum of the graph file the book was built on.
+     * @param depth    the depth the moves were searched to, for reference.
+     * @param entries  the entries, in any order of keys.
+     * @throws IOException if the file can't be written.
+     */
+    public static void save(File file, long checksum, int depth, List<Entry> entries) throws IOException {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort((a, b) -> Long.compare(a.key, b.key));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum);
+            out.writeInt(sorted.size());
+            out.writeInt(depth);
+            for (Entry entry : sorted) {
+                out.writeLong(entry.key);
+                out.writeInt(entry.move);
+                out.writeFloat(entry.score);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a position Mr X is to move in.
+     *
+     * @param view        the game.
+     * @param mrXLocation where Mr X is.
+     * @return the key of the position.
+     */
+    public static long mrXKey(ScotlandYardView view, int mrXLocation) {
+        return PackedState.fromView(view, mrXLocation).hash();
+    }
+
+    /**
+     * Returns the key of a position a detective is to move in, from what the detectives know.
+     *
+     * @param view    the game, which shows Mr X where he was last seen.
+     * @param tracker where Mr X could be, followed up to the current round.
+     * @return the key of the position.
+     */
+    public static long detectiveKey(ScotlandYardView view, MrXTracker tracker) {
+        return PackedState.fromView(view, view.getPlayerLocation(Colour.Black)).hash() ^ tracker.getHash();
+    }
+
+    /**
+     * Returns the best move the book has for a position that is also one of the valid moves.
+     *
+     * @param key        the key of the position.
+     * @param validMoves the moves that can be played.
+     * @return the move, or null if the book doesn't have the position.
+     */
+    public Move bestMove(long key, List<Move> validMoves) {
+        for (int i = find(key); i >= 0 && i < size && key(i) == key; i++) {
+            int move = move(i);
+            for (Move valid : validMoves) {
+                if (PackedMove.fromMove(valid) == move)
+                    return valid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first entry for a position.
+     *
+     * @param key the key of the position.
+     * @return the index of the first entry with the key, or -1 if there is none.
+     */
+    public int find(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (key(middle) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low < size && key(low) == key ? low : -1;
+    }
+
+    public long key(int entry) {
+        return entries.getLong(HEADER_BYTES + entry * ENTRY_BYTES);
+    }
+
+    public int move(int entry) {
+        return entries.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 8);
+    }
+
+    public float score(int entry) {
+        return entries.getFloat(HEADER_BYTES + entry * ENTRY_BYTES + 12);
+    }
+
+    /**
+     * Returns the number of entries - moves, not positions.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return "OpeningBook[" + size + " entries, depth " + depth + "]";
+    }
+
+    /**
+     * One move for one position, with the score the search gave it - higher is better for Mr X.
+     */
+    public static class Entry {
+
+        public final long key;
+        public final int move;
+        public final float score;
+
+        public Entry(long key, int move, float score) {
+            this.key = key;
+            this.move = move;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package player;
+
+import scotlandyard.*;
+
+/**
+ * Moves encoded as plain ints, so the search can generate and store them without allocating.
+ * <pre>
+ *   bits 0-1   kind: SINGLE, DOUBLE or PASS (0 is never a valid move)
+ *   bits 2-4   colour, as an index into PackedState.COLOURS
+ *   bits 5-7   first ticket, as an index into PackedState.TICKETS
+ *   bits 8-15  first target
+ *   bits 16-18 second ticket (double moves only)
+ *   bits 19-26 second target (double moves only)
+ * </pre>
+ * Move objects are only created, through toMove(), for a move that is actually sent to the game.
+ */
+public final class PackedMove {
+
+    public static final int NONE = 0;
+    public static final int SINGLE = 1;
+    public static final int DOUBLE = 2;
+    public static final int PASS = 3;
+
+    private PackedMove() {
+    }
+
+    public static int single(int colour, int ticket, int target) {
+        return SINGLE | (colour << 2) | (ticket << 5) | (target << 8);
+    }
+
+    public static int doubleMove(int colour, int ticket1, int target1, int ticket2, int target2) {
+        return DOUBLE | (colour << 2) | (ticket1 << 5) | (target1 << 8) | (ticket2 << 16) | (target2 << 19);
+    }
+
+    public static int pass(int colour) {
+        return PASS | (colour << 2);
+    }
+
+    public static int kind(int move) {
+        return move & 0x3;
+    }
+
+    public static int colour(int move) {
+        return (move >>> 2) & 0x7;
+    }
+
+    public static int ticket1(int move) {
+        return (move >>> 5) & 0x7;
+    }
+
+    public static int target1(int move) {
+        return (move >>> 8) & 0xFF;
+    }
+
+    public static int ticket2(int move) {
+        return (move >>> 16) & 0x7;
+    }
+
+    public static int target2(int move) {
+        return (move >>> 19) & 0xFF;
+    }
+
+    /**
+     * Returns a double move with its first target left out, which identifies the position it leads
+     * to: the tickets spent and where Mr X ends up are the same whichever node he passes through.
+     *
+     * @param move the packed double move.
+     * @return the move with the first target set to 0.
+     */
+    public static int withoutTarget1(int move) {
+        return move & ~(0xFF << 8);
+    }
+
+    /**
+     * Returns the node a move finishes on.
+     *
+     * @param move the packed move.
+     * @return the final target of the move, or 0 for a pass.
+     */
+    public static int finalTarget(int move) {
+        int kind = kind(move);
+        if (kind == DOUBLE)
+            return target2(move);
+        if (kind == SINGLE)
+            return target1(move);
+        return 0;
+    }
+
+    /**
+     * Converts a packed move to the Move object the game expects.
+     *
+     * @param move the packed move.
+     * @return the equivalent Move.
+     */
+    public static Move toMove(int move) {
+        Colour colour = PackedState.COLOURS[colour(move)];
+        switch (kind(move)) {
+            case SINGLE:
+                return MoveTicket.instance(colour, PackedState.TICKETS[ticket1(move)], target1(move));
+            case DOUBLE:
+                return MoveDouble.instance(colour, PackedState.TICKETS[ticket1(move)], target1(move),
+                        PackedState.TICKETS[ticket2(move)], target2(move));
+            case PASS:
+                return MovePass.instance(colour);
+            default:
+                throw new IllegalArgumentException("Not a move: " + move);
+        }
+    }
+
+    /**
+     * Packs a Move object.
+     *
+     * @param move the Move.
+     * @return the packed move.
+     */
+    public static int fromMove(Move move) {
+        int colour = PackedState.indexOf(move.colour);
+        if (move instanceof MoveTicket) {
+            MoveTicket moveTicket = (MoveTicket) move;
+            return single(colour, PackedState.indexOf(moveTicket.ticket), moveTicket.target);
+        } else if (move instanceof MoveDouble) {
+            MoveDouble moveDouble = (MoveDouble) move;
+            return doubleMove(colour, PackedState.indexOf(moveDouble.move1.ticket), moveDouble.move1.target,
+                    PackedState.indexOf(moveDouble.move2.ticket), moveDouble.move2.target);
+        } else if (move instanceof MovePass) {
+            return pass(colour);
+        }
+        throw new IllegalArgumentException("Unknown move: " + move);
+    }
+
+    public static String toString(int move) {
+        return kind(move) == NONE ? "None" : toMove(move).toString();
+    }
+}
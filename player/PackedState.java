@@ -0,0 +1,352 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * A compact, immutable snapshot of a Scotland Yard position for use by searches.
+ * Everything that changes during a game is packed into three longs:
+ * <pre>
+ *   locations        bits 0-47 the node of each player (8 bits each, by index in COLOURS),
+ *                    bits 48-52 the round, bits 53-55 the player to move, bits 56-61 which players are in the game
+ *   mrXTickets       8 bits per ticket type, in the order of TICKETS
+ *   detectiveTickets 4 bits each for the Taxi, Bus and Underground tickets of up to five detectives
+ * </pre>
+ * A 64-bit Zobrist hash is carried alongside and updated incrementally by play(),
+ * so copying, comparing and hashing a state costs a handful of primitive operations.
+ * Players are indexed by colour: index i is the colour COLOURS[i], as in CustomScotlandYard's hash, whichever
+ * detectives are in the game. They play in that order, skipping the colours that aren't in the game.
+ */
+public final class PackedState {
+
+    public static final Colour[] COLOURS = {Colour.Black, Colour.Blue, Colour.Green, Colour.Red, Colour.White, Colour.Yellow};
+    public static final Ticket[] TICKETS = {Ticket.Taxi, Ticket.Bus, Ticket.Underground, Ticket.Double, Ticket.Secret};
+
+    private static final int DETECTIVE_TICKETS = 3; //detectives only ever hold Taxi, Bus and Underground tickets
+    private static final int ROUND_SHIFT = 48;
+    private static final int SIDE_SHIFT = 53;
+    private static final int PLAYERS_SHIFT = 56;
+    private static final int PLAYERS_MASK = (1 << 6) - 1;
+
+    private final long locations;
+    private final long mrXTickets;
+    private final long detectiveTickets;
+    private final long hash;
+
+    private PackedState(long locations, long mrXTickets, long detectiveTickets, long hash) {
+        this.locations = locations;
+        this.mrXTickets = mrXTickets;
+        this.detectiveTickets = detectiveTickets;
+        this.hash = hash;
+    }
+
+    /**
+     * Builds a state from its parts.
+     *
+     * @param players       which players are in the game: bit i is set if COLOURS[i] is.
+     * @param locations     the location of each player, by index in COLOURS; players not in the game are ignored.
+     * @param tickets       the tickets of each player, indexed [player][ticket] in the order of TICKETS.
+     * @param round         the current round.
+     * @param currentPlayer the index in COLOURS of the player whose turn it is.
+     * @return the packed state.
+     * @throws IllegalArgumentException if a value does not fit the packed layout.
+     */
+    public static PackedState of(int players, int[] locations, int[][] tickets, int round, int currentPlayer) {
+        if ((players & 1) == 0 || (players & ~PLAYERS_MASK) != 0)
+            throw new IllegalArgumentException("Unsupported players: " + Integer.toBinaryString(players));
+        if (round < 0 || round >= Zobrist.MAX_ROUND)
+            throw new IllegalArgumentException("Unsupported round: " + round);
+        if (currentPlayer < 0 || currentPlayer >= COLOURS.length || (players & (1 << currentPlayer)) == 0)
+            throw new IllegalArgumentException("Unsupported current player: " + currentPlayer);
+
+        long packedLocations = ((long) round << ROUND_SHIFT) | ((long) currentPlayer << SIDE_SHIFT) | ((long) players << PLAYERS_SHIFT);
+        long packedMrX = 0;
+        long packedDetectives = 0;
+        long hash = Zobrist.round(round) ^ Zobrist.side(currentPlayer);
+
+        for (int player = 0; player < COLOURS.length; player++) {
+            if ((players & (1 << player)) == 0)
+                continue;
+            int location = locations[player];
+            if (location < 0 || location >= Zobrist.MAX_NODE)
+                throw new IllegalArgumentException("Unsupported location for " + COLOURS[player] + ": " + location);
+            packedLocations |= (long) location << (8 * player);
+            hash ^= Zobrist.location(player, location);
+
+            for (int ticket = 0; ticket < TICKETS.length; ticket++) {
+                int count = tickets[player][ticket];
+                if (player == 0) {
+                    if (count < 0 || count >= Zobrist.MAX_TICKET_COUNT)
+                        throw new IllegalArgumentException("Unsupported " + TICKETS[ticket] + " count for Mr X: " + count);
+                    packedMrX = setMrXTickets(packedMrX, ticket, count);
+                } else if (ticket < DETECTIVE_TICKETS) {
+                    if (count < 0 || count > 15)
+                        throw new IllegalArgumentException("Unsupported " + TICKETS[ticket] + " count for " + COLOURS[player] + ": " + count);
+                    packedDetectives = setDetectiveTickets(packedDetectives, player, ticket, count);
+                } else if (count != 0) {
+                    throw new IllegalArgumentException(COLOURS[player] + " cannot hold " + TICKETS[ticket] + " tickets");
+                }
+                hash ^= Zobrist.tickets(player, ticket, count);
+            }
+        }
+        return new PackedState(packedLocations, packedMrX, packedDetectives, hash);
+    }
+
+    /**
+     * Packs the position of a CustomScotlandYard, which always knows where Mr X actually is.
+     *
+     * @param game the game to pack.
+     * @return the packed state.
+     */
+    public static PackedState fromGame(CustomScotlandYard game) {
+        return fromView(game, game.getPlayerLocation(Colour.Black));
+    }
+
+    /**
+     * Packs the position of any game view, such as the real ScotlandYard, where Mr X's
+     * location is hidden and has to be supplied by the caller.
+     *
+     * @param view        the game to pack.
+     * @param mrXLocation the location to use for Mr X.
+     * @return the packed state.
+     */
+    public static PackedState fromView(ScotlandYardView view, int mrXLocation) {
+        int players = 0;
+        int[] locations = new int[COLOURS.length];
+        int[][] tickets = new int[COLOURS.length][TICKETS.length];
+
+        for (Colour colour : view.getPlayers()) {
+            int player = indexOf(colour);
+            players |= 1 << player;
+            locations[player] = colour == Colour.Black ? mrXLocation : view.getPlayerLocation(colour);
+            for (int ticket = 0; ticket < TICKETS.length; ticket++)
+                tickets[player][ticket] = Math.max(view.getPlayerTickets(colour, TICKETS[ticket]), 0);
+        }
+        return of(players, locations, tickets, view.getRound(), indexOf(view.getCurrentPlayer()));
+    }
+
+    /**
+     * Unpacks the state into a new CustomScotlandYard, its players joining in the order of COLOURS.
+     *
+     * @param graph  the graph used to represent the board.
+     * @param rounds the List of booleans determining at which rounds Mr X is visible.
+     * @return a CustomScotlandYard in the same position.
+     */
+    public CustomScotlandYard toGame(ScotlandYardGraph graph, List<Boolean> rounds) {
+        CustomScotlandYard game = new CustomScotlandYard(getNumberOfPlayers() - 1, rounds, graph);
+        for (int player = 0; player < COLOURS.length; player++) {
+            if (!hasPlayer(player))
+                continue;
+            Map<Ticket, Integer> tickets = new HashMap<>();
+            for (int ticket = 0; ticket < TICKETS.length; ticket++)
+                tickets.put(TICKETS[ticket], getTickets(player, ticket));
+            game.join(COLOURS[player], getLocation(player), tickets);
+        }
+        game.setRound(getRound());
+        game.setCurrentPlayer(getCurrentColour());
+        return game;
+    }
+
+    /**
+     * Returns the state after a move has been played, following the rules of CustomScotlandYard.playMove():
+     * tickets used by detectives go to Mr X, each of Mr X's moves advances the round and
+     * a double move also uses a Double ticket.
+     *
+     * @param move the move to play, which must belong to the current player.
+     * @return the state after the move.
+     * @throws IllegalArgumentException if the player cannot afford the move.
+     */
+    public PackedState play(Move move) {
+        int player = getCurrentPlayer();
+        int round = getRound();
+        long newLocations = locations;
+        long newMrX = mrXTickets;
+        long newDetectives = detectiveTickets;
+        long newHash = hash;
+
+        int steps = 0;
+        if (move instanceof MoveTicket)
+            steps = 1;
+        else if (move instanceof MoveDouble)
+            steps = 2;
+
+        for (int step = 0; step < steps; step++) {
+            MoveTicket moveTicket;
+            if (move instanceof MoveTicket)
+                moveTicket = (MoveTicket) move;
+            else if (step == 0)
+                moveTicket = ((MoveDouble) move).move1;
+            else
+                moveTicket = ((MoveDouble) move).move2;
+
+            int from = (int) (newLocations >>> (8 * player)) & 0xFF;
+            newLocations = (newLocations & ~(0xFFL << (8 * player))) | ((long) moveTicket.target << (8 * player));
+            newHash ^= Zobrist.location(player, from) ^ Zobrist.location(player, moveTicket.target);
+
+            int ticket = indexOf(moveTicket.ticket);
+            if (player == 0) {
+                int count = mrXTickets(newMrX, ticket);
+                checkAffordable(player, ticket, count);
+                newMrX = setMrXTickets(newMrX, ticket, count - 1);
+                newHash ^= Zobrist.tickets(0, ticket, count) ^ Zobrist.tickets(0, ticket, count - 1);
+                newHash ^= Zobrist.round(round) ^ Zobrist.round(round + 1);
+                round++;
+            } else {
+                int count = ticket < DETECTIVE_TICKETS ? detectiveTickets(newDetectives, player, ticket) : 0;
+                checkAffordable(player, ticket, count);
+                newDetectives = setDetectiveTickets(newDetectives, player, ticket, count - 1);
+                newHash ^= Zobrist.tickets(player, ticket, count) ^ Zobrist.tickets(player, ticket, count - 1);
+                int mrXCount = mrXTickets(newMrX, ticket);
+                newMrX = setMrXTickets(newMrX, ticket, mrXCount + 1);
+                newHash ^= Zobrist.tickets(0, ticket, mrXCount) ^ Zobrist.tickets(0, ticket, mrXCount + 1);
+            }
+        }
+
+        if (move instanceof MoveDouble) {
+            int ticket = indexOf(Ticket.Double);
+            int count = mrXTickets(newMrX, ticket);
+            checkAffordable(player, ticket, count);
+            newMrX = setMrXTickets(newMrX, ticket, count - 1);
+            newHash ^= Zobrist.tickets(0, ticket, count) ^ Zobrist.tickets(0, ticket, count - 1);
+        }
+
+        int next = (player + 1) % COLOURS.length;
+        while (!hasPlayer(next))
+            next = (next + 1) % COLOURS.length;
+        newHash ^= Zobrist.side(player) ^ Zobrist.side(next);
+        newLocations = (newLocations & ~((0x1FL << ROUND_SHIFT) | (0x7L << SIDE_SHIFT)))
+                | ((long) round << ROUND_SHIFT) | ((long) next << SIDE_SHIFT);
+
+        return new PackedState(newLocations, newMrX, newDetectives, newHash);
+    }
+
+    private static void checkAffordable(int player, int ticket, int count) {
+        if (count <= 0)
+            throw new IllegalArgumentException(COLOURS[player] + " has no " + TICKETS[ticket] + " tickets left");
+    }
+
+    private static int mrXTickets(long word, int ticket) {
+        return (int) (word >>> (8 * ticket)) & 0xFF;
+    }
+
+    private static long setMrXTickets(long word, int ticket, int count) {
+        return (word & ~(0xFFL << (8 * ticket))) | ((long) count << (8 * ticket));
+    }
+
+    private static int detectiveTickets(long word, int player, int ticket) {
+        return (int) (word >>> (12 * (player - 1) + 4 * ticket)) & 0xF;
+    }
+
+    private static long setDetectiveTickets(long word, int player, int ticket, int count) {
+        int shift = 12 * (player - 1) + 4 * ticket;
+        return (word & ~(0xFL << shift)) | ((long) count << shift);
+    }
+
+    /**
+     * Returns the index of a colour in play order.
+     *
+     * @param colour the colour of the player.
+     * @return the index of the colour in COLOURS.
+     */
+    public static int indexOf(Colour colour) {
+        for (int i = 0; i < COLOURS.length; i++) {
+            if (COLOURS[i] == colour)
+                return i;
+        }
+        throw new IllegalArgumentException("Unknown colour: " + colour);
+    }
+
+    /**
+     * Returns the index of a ticket type.
+     *
+     * @param ticket the ticket type.
+     * @return the index of the ticket in TICKETS.
+     */
+    public static int indexOf(Ticket ticket) {
+        for (int i = 0; i < TICKETS.length; i++) {
+            if (TICKETS[i] == ticket)
+                return i;
+        }
+        throw new IllegalArgumentException("Unknown ticket: " + ticket);
+    }
+
+    public int getNumberOfPlayers() {
+        return Integer.bitCount(getPlayers());
+    }
+
+    /**
+     * Returns which players are in the game: bit i is set if COLOURS[i] is.
+     *
+     * @return the players in the game.
+     */
+    public int getPlayers() {
+        return (int) (locations >>> PLAYERS_SHIFT) & PLAYERS_MASK;
+    }
+
+    public boolean hasPlayer(int player) {
+        return (getPlayers() & (1 << player)) != 0;
+    }
+
+    public int getLocation(int player) {
+        return (int) (locations >>> (8 * player)) & 0xFF;
+    }
+
+    public int getTickets(int player, int ticket) {
+        if (player == 0)
+            return mrXTickets(mrXTickets, ticket);
+        if (ticket < DETECTIVE_TICKETS)
+            return detectiveTickets(detectiveTickets, player, ticket);
+        return 0;
+    }
+
+    public int getTickets(int player, Ticket ticket) {
+        return getTickets(player, indexOf(ticket));
+    }
+
+    public int getRound() {
+        return (int) (locations >>> ROUND_SHIFT) & 0x1F;
+    }
+
+    public int getCurrentPlayer() {
+        return (int) (locations >>> SIDE_SHIFT) & 0x7;
+    }
+
+    public Colour getCurrentColour() {
+        return COLOURS[getCurrentPlayer()];
+    }
+
+    /**
+     * Returns the 64-bit Zobrist hash of the position.
+     *
+     * @return the 64-bit Zobrist hash of the position.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PackedState))
+            return false;
+        PackedState other = (PackedState) o;
+        return locations == other.locations && mrXTickets == other.mrXTickets && detectiveTickets == other.detectiveTickets;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int player = 0; player < COLOURS.length; player++) {
+            if (hasPlayer(player))
+                builder.append(COLOURS[player]).append('@').append(getLocation(player)).append(' ');
+        }
+        return builder.append("round ").append(getRound()).append(", ").append(getCurrentColour()).append(" to move").toString();
+    }
+}
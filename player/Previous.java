@@ -2,12 +2,35 @@ package player;
 
 import scotlandyard.*;
 
+/**
+ * A record of the state a move overwrites, so that CustomScotlandYard can take the move back again.
+ * Records are reused from CustomScotlandYard's history stack, so making and unmaking a move allocates nothing.
+ */
 public class Previous {
-    public Integer location = null;
+    public int location = 0;
     public Ticket removedticket = null;
-    public Ticket giventicket = null;
-    public Integer round = null; //if round/MrXpop never changed/or changed reseting it to previous value doesn't hurt
-    public Integer pMrXpop = null;
-    public Colour cplayer = null;
+    public Ticket removedticket2 = null; //second ticket of a double move
+    public boolean doublemove = false;
+    public Ticket giventicket = null; //ticket handed to Mr X by a detective
+    public int round = 0; //if round/mrXLocation never changed resetting it to previous value doesn't hurt
+    public int mrXLocation = 0;
+    public CustomPlayerData cplayer = null;
+    public long hash = 0;
+    public int detectiveTickets = 0;
 
+    /**
+     * Clears the record so it can be reused for another move.
+     */
+    public void clear() {
+        location = 0;
+        removedticket = null;
+        removedticket2 = null;
+        doublemove = false;
+        giventicket = null;
+        round = 0;
+        mrXLocation = 0;
+        cplayer = null;
+        hash = 0;
+        detectiveTickets = 0;
+    }
 }
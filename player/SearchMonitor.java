@@ -0,0 +1,249 @@
+package player;
+
+import scotlandyard.Move;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Collects the statistics of every move an AIPlayer searches: the last move's counters, running
+ * totals and a histogram of how long moves take. Each move is also written to the "player.search"
+ * logger as one line of JSON, and the whole monitor can be registered as a JMX MBean. Moves played
+ * from the opening book or found by solving the endgame are logged and counted too.
+ */
+public class SearchMonitor implements SearchMonitorMBean {
+
+    private static final Logger log = Logger.getLogger("player.search");
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile SearchStats last = new SearchStats();
+    private volatile long lastNanos = 0;
+    private volatile int lastDepth = -1;
+    private long moves = 0;
+    private long totalNodes = 0;
+    private long bookMoves = 0;
+    private long endgamesSolved = 0;
+
+    /**
+     * Constructs a monitor with a name unique within this JVM.
+     *
+     * @param player what the monitor is for, e.g. "mrX" or "detective".
+     */
+    public SearchMonitor(String player) {
+        this.name = player + "-" + ids.incrementAndGet();
+    }
+
+    /**
+     * Records a finished search.
+     *
+     * @param stats the counters of the search.
+     * @param depth the deepest depth searched completely.
+     * @param nanos how long the search took.
+     */
+    public synchronized void record(SearchStats stats, int depth, long nanos) {
+        last = stats;
+        lastNanos = nanos;
+        lastDepth = depth;
+        moves++;
+        totalNodes += stats.nodes;
+        latency.record(nanos);
+        log.info(String.format(Locale.ROOT,
+                "{\"event\":\"move\",\"player\":\"%s\",\"depth\":%d,\"millis\":%d,\"nodes\":%d,\"nodesPerSecond\":%d,"
+                        + "\"leaves\":%d,\"cutoffRate\":%.3f,\"firstMoveCutoffRate\":%.3f,\"doubleGenerations\":%d,\"tableHits\":%d,"
+                        + "\"generationMillis\":%d,\"scoringMillis\":%d,\"cloneMillis\":%d,\"worlds\":%d,\"worldsSearched\":%d}",
+                name, depth, nanos / 1000000, stats.nodes, getLastNodesPerSecond(), stats.leaves, stats.getCutoffRate(),
+                stats.getFirstMoveCutoffRate(), stats.doubleGenerations, stats.tableHits, stats.generationNanos / 1000000,
+                stats.scoringNanos / 1000000, stats.cloneNanos / 1000000, stats.worlds, stats.worldsSearched));
+    }
+
+    /**
+     * Records a move played from the opening book rather than searched.
+     *
+     * @param move the move.
+     */
+    public synchronized void recordBookMove(Move move) {
+        bookMoves++;
+        log.info(String.format(Locale.ROOT, "{\"event\":\"book\",\"player\":\"%s\",\"move\":\"%s\"}", name, move));
+    }
+
+    /**
+     * Records a move chosen by solving the endgame rather than searching.
+     *
+     * @param move   the move.
+     * @param result the outcome the solver found for it.
+     * @param nodes  the number of positions the solver visited.
+     * @param bytes  the memory the solver's tables took.
+     * @param nanos  how long the solver took.
+     */
+    public synchronized void recordEndgame(Move move, EndgameSolver.Result result, long nodes, long bytes, long nanos) {
+        endgamesSolved++;
+        log.info(String.format(Locale.ROOT, "{\"event\":\"endgame\",\"player\":\"%s\",\"move\":\"%s\",\"result\":\"%s\","
+                + "\"nodes\":%d,\"kb\":%d,\"ms\":%d}", name, move, result, nodes, bytes / 1024, nanos / 1000000));
+    }
+
+    /**
+     * Registers the monitor with the platform MBean server, as player:type=SearchMonitor,name=...
+     */
+    public void register() {
+        try {
+            ObjectName objectName = objectName();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName))
+                server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warning("Could not register search monitor " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Takes the monitor off the platform MBean server, if it was registered.
+     */
+    public void unregister() {
+        try {
+            ObjectName objectName = objectName();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warning("Could not unregister search monitor " + name + ": " + e);
+        }
+    }
+
+    private ObjectName objectName() throws MalformedObjectNameException {
+        return new ObjectName("player:type=SearchMonitor,name=" + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public SearchStats getLastStats() {
+        return last;
+    }
+
+    @Override
+    public synchronized long getMoves() {
+        return moves;
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        return totalNodes;
+    }
+
+    @Override
+    public synchronized long getBookMoves() {
+        return bookMoves;
+    }
+
+    @Override
+    public synchronized long getEndgamesSolved() {
+        return endgamesSolved;
+    }
+
+    @Override
+    public long getLastMoveNodes() {
+        return last.nodes;
+    }
+
+    @Override
+    public long getLastMoveMillis() {
+        return lastNanos / 1000000;
+    }
+
+    @Override
+    public int getLastDepthCompleted() {
+        return lastDepth;
+    }
+
+    @Override
+    public long getLastNodesPerSecond() {
+        return last.nodes * 1000000000L / Math.max(lastNanos, 1);
+    }
+
+    @Override
+    public double getLastCutoffRate() {
+        return last.getCutoffRate();
+    }
+
+    @Override
+    public double getLastFirstMoveCutoffRate() {
+        return last.getFirstMoveCutoffRate();
+    }
+
+    @Override
+    public long getLastTableHits() {
+        return last.tableHits;
+    }
+
+    @Override
+    public long getLastGenerationMillis() {
+        return last.generationNanos / 1000000;
+    }
+
+    @Override
+    public long getLastScoringMillis() {
+        return last.scoringNanos / 1000000;
+    }
+
+    @Override
+    public long getLastCloneMillis() {
+        return last.cloneNanos / 1000000;
+    }
+
+    @Override
+    public int getLastWorlds() {
+        return last.worlds;
+    }
+
+    @Override
+    public int getLastWorldsSearched() {
+        return last.worldsSearched;
+    }
+
+    @Override
+    public long getLatencyMeanMillis() {
+        return latency.getMean() / 1000000;
+    }
+
+    @Override
+    public long getLatencyP50Millis() {
+        return latency.getPercentile(50) / 1000000;
+    }
+
+    @Override
+    public long getLatencyP90Millis() {
+        return latency.getPercentile(90) / 1000000;
+    }
+
+    @Override
+    public long getLatencyP99Millis() {
+        return latency.getPercentile(99) / 1000000;
+    }
+
+    @Override
+    public long getLatencyMaxMillis() {
+        return latency.getMax() / 1000000;
+    }
+
+    @Override
+    public synchronized void reset() {
+        last = new SearchStats();
+        lastNanos = 0;
+        lastDepth = -1;
+        moves = 0;
+        totalNodes = 0;
+        bookMoves = 0;
+        endgamesSolved = 0;
+        latency.reset();
+    }
+}
@@ -0,0 +1,51 @@
+package player;
+
+/**
+ * What a SearchMonitor publishes over JMX.
+ */
+public interface SearchMonitorMBean {
+
+    long getMoves();
+
+    long getTotalNodes();
+
+    long getBookMoves();
+
+    long getEndgamesSolved();
+
+    long getLastMoveNodes();
+
+    long getLastMoveMillis();
+
+    int getLastDepthCompleted();
+
+    long getLastNodesPerSecond();
+
+    double getLastCutoffRate();
+
+    double getLastFirstMoveCutoffRate();
+
+    long getLastTableHits();
+
+    long getLastGenerationMillis();
+
+    long getLastScoringMillis();
+
+    long getLastCloneMillis();
+
+    int getLastWorlds();
+
+    int getLastWorldsSearched();
+
+    long getLatencyMeanMillis();
+
+    long getLatencyP50Millis();
+
+    long getLatencyP90Millis();
+
+    long getLatencyP99Millis();
+
+    long getLatencyMaxMillis();
+
+    void reset();
+}
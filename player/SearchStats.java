@@ -0,0 +1,110 @@
+package player;
+
+/**
+ * Counters for one search, kept by each SearchWorker for the nodes it visits and added up by
+ * AIPlayer when the move is chosen. Workers only count when instrumentation is turned on, and
+ * then only with plain increments on their own copy, so no counter is ever shared between threads.
+ */
+public class SearchStats {
+
+    long nodes;
+    long leaves;            //positions scored by the evaluation
+    long expanded;          //positions whose moves were searched
+    long cutoffs;
+    long firstMoveCutoffs;  //cutoffs caused by the first move tried
+    long doubleGenerations; //positions where Mr X's double moves had to be generated
+    long tableHits;
+    long generationNanos;
+    long scoringNanos;
+    long cloneNanos;
+    int worlds;             //places Mr X could be that a detective searched, 0 when he was searched where he is
+    int worldsSearched;     //those of them searched to some depth before time ran out
+
+    void add(SearchStats other) {
+        nodes += other.nodes;
+        leaves += other.leaves;
+        expanded += other.expanded;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        doubleGenerations += other.doubleGenerations;
+        tableHits += other.tableHits;
+        generationNanos += other.generationNanos;
+        scoringNanos += other.scoringNanos;
+        cloneNanos += other.cloneNanos;
+        worlds += other.worlds;
+        worldsSearched += other.worldsSearched;
+    }
+
+    void reset() {
+        nodes = 0;
+        leaves = 0;
+        expanded = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        doubleGenerations = 0;
+        tableHits = 0;
+        generationNanos = 0;
+        scoringNanos = 0;
+        cloneNanos = 0;
+        worlds = 0;
+        worldsSearched = 0;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    public long getDoubleGenerations() {
+        return doubleGenerations;
+    }
+
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * Returns the share of searched positions that were cut off before all their moves were tried.
+     *
+     * @return the cutoff rate, from 0 to 1.
+     */
+    public double getCutoffRate() {
+        return expanded == 0 ? 0 : (double) cutoffs / expanded;
+    }
+
+    /**
+     * Returns the share of cutoffs that came from the first move tried - a measure of move ordering.
+     *
+     * @return the first move cutoff ratio, from 0 to 1.
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public long getGenerationNanos() {
+        return generationNanos;
+    }
+
+    public long getScoringNanos() {
+        return scoringNanos;
+    }
+
+    public long getCloneNanos() {
+        return cloneNanos;
+    }
+
+    public int getWorlds() {
+        return worlds;
+    }
+
+    public int getWorldsSearched() {
+        return worldsSearched;
+    }
+}
@@ -0,0 +1,248 @@
+package player;
+
+import scotlandyard.*;
+
+import java.util.*;
+
+/**
+ * The part of AIPlayer's search that each thread needs its own copy of: the alpha-beta
+ * recursion, the move lists it reuses for every ply, its move ordering and its node count.
+ * What threads share - the transposition table, the clock and the evaluation - stays in AIPlayer.
+ */
+class SearchWorker {
+
+    private static final int TERMINAL_DEPTH = 0xFF;
+
+    private final AIPlayer search;
+    private final TranspositionTable table;
+    private MoveList[] moveLists = new MoveList[AIPlayer.DEFAULT_MAX_DEPTH + 2];
+    private final MoveOrdering ordering = new MoveOrdering();
+    private long nodes = 0;
+    private final SearchStats stats = new SearchStats();
+    private boolean instrumented = false; //only count and time the search when asked, so it costs nothing otherwise
+    private volatile boolean stopped = false; //set to call a helper off without stopping the whole search
+
+    SearchWorker(AIPlayer search, TranspositionTable table) {
+        this.search = search;
+        this.table = table;
+    }
+
+    //Returns best score possible - but not the move
+    //Moves are generated as packed ints into a reusable list for each ply, so searching allocates nothing
+    double minimax(int depth, int ply, CustomScotlandYard cloneGame, double alpha, double beta){
+        nodes++;
+        if(stopped || search.outOfTime())
+            return 0;
+
+        //Reuse the result of an earlier search of this position if it was at least as deep and settles this window
+        long key = cloneGame.getHash();
+        long entry = table.probe(key);
+        if(entry != 0 && TranspositionTable.depth(entry) >= depth){
+            double storedScore = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if(bound == TranspositionTable.EXACT
+                    || (bound == TranspositionTable.LOWER && storedScore > beta)
+                    || (bound == TranspositionTable.UPPER && storedScore < alpha)){
+                if(instrumented)
+                    stats.tableHits++;
+                return storedScore;
+            }
+        }
+
+        //Generate moves before checking for the end of the game, so the check can reuse them.
+        //Only single moves for now - Mr X's double moves wait until every single move has been tried
+        MoveList validMoves = null;
+        int status;
+        if(depth > 0){
+            long start = instrumented ? System.nanoTime() : 0;
+            validMoves = moveList(ply);
+            cloneGame.generateSingleMoves(cloneGame.getCurrentPlayer(), validMoves);
+            status = cloneGame.getStatus(validMoves);
+            if(instrumented)
+                stats.generationNanos += System.nanoTime() - start;
+        }
+        else{
+            status = cloneGame.getStatus();
+        }
+
+        if(status != CustomScotlandYard.NOT_OVER){
+            double score;
+            if(status == CustomScotlandYard.MRX_WINS)
+                score = Double.POSITIVE_INFINITY;
+            else
+                score = Double.NEGATIVE_INFINITY;
+            //A finished game scores the same however deep we were asked to search it
+            table.store(key, TERMINAL_DEPTH, TranspositionTable.EXACT, score, -1);
+            return score;
+        }
+
+        if(depth == 0){
+            //This will return his actual location
+            int mrXLocation = cloneGame.getPlayerLocation(Colour.Black);
+            long start = instrumented ? System.nanoTime() : 0;
+            double score = search.score(cloneGame, mrXLocation);
+            if(instrumented){
+                stats.scoringNanos += System.nanoTime() - start;
+                stats.leaves++;
+            }
+            table.store(key, 0, TranspositionTable.EXACT, score, -1);
+            return score;
+        }
+
+        double alphaOriginal = alpha;
+        double betaOriginal = beta;
+        double maxNodeScore = Double.NEGATIVE_INFINITY;
+        double minNodeScore = Double.POSITIVE_INFINITY;
+        int bestMove = -1;
+        boolean maximiser = cloneGame.getCurrentPlayer() == Colour.Black;
+        //Try the moves most likely to cause a cutoff first
+        int mrXLocation = cloneGame.getPlayerLocation(Colour.Black);
+        int hashMove = entry != 0 ? TranspositionTable.move(entry) : -1;
+        //Moves are numbered in generated order, singles then doubles, so a hash move past the singles is a double
+        boolean doublesPending = maximiser && cloneGame.getPlayerTickets(Colour.Black, Ticket.Double) > 0;
+        if(doublesPending && hashMove >= validMoves.size()){
+            generateDoubles(cloneGame, validMoves);
+            doublesPending = false;
+        }
+        int size = validMoves.size();
+        ordering.order(ply, validMoves, 0, hashMove < size ? hashMove : -1, mrXLocation);
+        if(instrumented)
+            stats.expanded++;
+        //Iterate through all valid moves, determine maximum if mrX, determine minimum if detective
+        for(int n = 0; n < size || doublesPending; n++){
+            if(n == size){
+                //Every single move has been tried without a cutoff - only now are the double moves worth generating
+                doublesPending = false;
+                generateDoubles(cloneGame, validMoves);
+                if(validMoves.size() == size)
+                    break;
+                ordering.order(ply, validMoves, size, -1, mrXLocation);
+                size = validMoves.size();
+            }
+            int i = ordering.pick(ply, n, size);
+            int move = validMoves.get(i);
+            //Simulate next move on the shared board, and take it back once its subtree is scored
+            cloneGame.makeMove(move);
+
+            double score = minimax(depth-1, ply+1, cloneGame, alpha, beta);
+            cloneGame.unmakeMove();
+            //An unfinished subtree tells us nothing - leave without storing it
+            if(stopped || search.isAborted())
+                return 0;
+
+            //If Maximiser
+            if(maximiser) {
+                //The first move counts even if it loses, so a node where every move loses still has a best move
+                if (score > maxNodeScore || bestMove < 0) {
+                    maxNodeScore = score;
+                    bestMove = i;
+                    if(maxNodeScore > alpha)
+                        alpha = maxNodeScore;
+                }//If maximiser can choose a move with a higher score than best current option so far for minimiser, then the minimiser won't consider this branch
+                if (maxNodeScore > beta) {
+                    ordering.cutoff(ply, move, depth, false);
+                    if(instrumented)
+                        countCutoff(n);
+                    table.store(key, depth, TranspositionTable.LOWER, maxNodeScore, bestMove);
+                    return maxNodeScore;
+                }
+            }
+            //If Minimiser
+            else {
+                if (score < minNodeScore || bestMove < 0) {
+                    minNodeScore = score;
+                    bestMove = i;
+                    if(minNodeScore < beta)
+                        beta = minNodeScore;
+                }//If minimiser can choose a move with a lower score than best current option so far for maximiser, then the maximiser won't consider this branch
+                if(minNodeScore < alpha) {
+                    ordering.cutoff(ply, move, depth, PackedMove.finalTarget(move) == mrXLocation);
+                    if(instrumented)
+                        countCutoff(n);
+                    table.store(key, depth, TranspositionTable.UPPER, minNodeScore, bestMove);
+                    return minNodeScore;
+                }
+            }
+        }
+
+        //Returns best score possible from all of the valid moves at this ply of the game
+        double nodeScore = maximiser ? maxNodeScore : minNodeScore;
+        int bound = TranspositionTable.EXACT;
+        if(nodeScore <= alphaOriginal)
+            bound = TranspositionTable.UPPER;
+        else if(nodeScore >= betaOriginal)
+            bound = TranspositionTable.LOWER;
+        table.store(key, depth, bound, nodeScore, bestMove);
+        return nodeScore;
+    }
+
+    private void generateDoubles(CustomScotlandYard cloneGame, MoveList validMoves) {
+        long start = instrumented ? System.nanoTime() : 0;
+        cloneGame.generateDoubleMoves(Colour.Black, validMoves, true);
+        if(instrumented){
+            stats.generationNanos += System.nanoTime() - start;
+            stats.doubleGenerations++;
+        }
+    }
+
+    private void countCutoff(int movesTried) {
+        stats.cutoffs++;
+        if (movesTried == 0)
+            stats.firstMoveCutoffs++;
+    }
+
+    //Returns the move list for a ply, creating lists the first time the search gets that deep
+    private MoveList moveList(int ply) {
+        if (ply >= moveLists.length)
+            moveLists = Arrays.copyOf(moveLists, ply + 1);
+        if (moveLists[ply] == null)
+            moveLists[ply] = new MoveList();
+        return moveLists[ply];
+    }
+
+    /**
+     * Stops this worker's search as soon as it next looks at a node; nothing it was in the middle of is stored.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    boolean isStopped() {
+        return stopped || search.isAborted();
+    }
+
+    long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the counters of the current search, with the node count filled in. They stay at zero
+     * unless instrumentation is turned on.
+     */
+    SearchStats getStats() {
+        stats.nodes = nodes;
+        return stats;
+    }
+
+    void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    /**
+     * Gets ready to search for a new move: the node count, counters and stop flag are reset, and the move
+     * ordering forgets its killers and ages its history.
+     */
+    void newSearch() {
+        nodes = 0;
+        stats.reset();
+        stopped = false;
+        ordering.newSearch();
+    }
+
+    /**
+     * Forgets all the move ordering has learnt in earlier searches.
+     */
+    void forget() {
+        ordering.clear();
+    }
+}
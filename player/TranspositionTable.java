@@ -0,0 +1,212 @@
+package player;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size hash table of search results, keyed by a position's Zobrist hash.
+ * Lets the search reuse the result of a position it reaches again through a different
+ * order of moves (detectives moving in another order, Mr X going A-B-A, ...).
+ *
+ * The table is a flat long[] of buckets, each holding two entries of two longs:
+ * the key XORed with the data, and the data itself. A reader only trusts an entry whose
+ * key XOR data gives back its own key, so threads can share the table without locks -
+ * an entry torn by two simultaneous writes simply reads as a miss.
+ *
+ * The first entry of a bucket is depth-preferred: it is only replaced by a search at least
+ * as deep, or once it is left over from an earlier round. The second entry is always replaced.
+ * Several players can share a table: the generation follows the game's round, so the searches of
+ * detectives moving in the same round don't age each other's entries.
+ *
+ * Entry data is packed into one long:
+ * <pre>
+ *   bits 0-31  score (float bits)
+ *   bits 32-39 depth
+ *   bits 40-41 bound type
+ *   bits 42-57 best move + 1 (0 when there is none)
+ *   bits 58-63 search generation
+ * </pre>
+ */
+public class TranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER = 2; //score is a lower bound: the search failed high
+    public static final int UPPER = 3; //score is an upper bound: the search failed low
+
+    public static final int DEFAULT_MEGABYTES = 32;
+    private static final int BUCKET_LONGS = 4;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * 8;
+
+    private final long[] table;
+    private final int mask;
+    private volatile int generation = 0; //read by every thread searching with the table
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * Constructs a table that uses at most the given amount of memory.
+     *
+     * @param megabytes the memory budget of the table, in megabytes.
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1)
+            throw new IllegalArgumentException("Table needs at least one megabyte, got " + megabytes);
+        long buckets = Long.highestOneBit(((long) megabytes << 20) / BUCKET_BYTES);
+        //a Java array holds at most 2^31 - 1 elements
+        buckets = Math.min(buckets, 1L << 28);
+        this.table = new long[(int) buckets * BUCKET_LONGS];
+        this.mask = (int) buckets - 1;
+    }
+
+    /**
+     * Looks a position up in the table.
+     *
+     * @param key the Zobrist hash of the position.
+     * @return the packed entry data, or 0 if the position isn't in the table.
+     */
+    public long probe(long key) {
+        int bucket = bucket(key);
+        for (int slot = bucket; slot < bucket + BUCKET_LONGS; slot += 2) {
+            long data = table[slot + 1];
+            if ((table[slot] ^ data) == key && data != 0) {
+                hits.increment();
+                return data;
+            }
+        }
+        //A miss on a bucket that holds other positions is an index collision
+        if (table[bucket + 1] != 0 || table[bucket + 3] != 0)
+            collisions.increment();
+        misses.increment();
+        return 0;
+    }
+
+    /**
+     * Stores the result of searching a position.
+     *
+     * @param key   the Zobrist hash of the position.
+     * @param depth the depth the position was searched to.
+     * @param bound EXACT, LOWER or UPPER.
+     * @param score the score found.
+     * @param move  the index of the best move found, or -1 if there is none.
+     */
+    public void store(long key, int depth, int bound, double score, int move) {
+        long data = pack(depth, bound, score, move, generation);
+        int bucket = bucket(key);
+
+        long preferred = table[bucket + 1];
+        boolean samePosition = (table[bucket] ^ preferred) == key;
+        if (preferred == 0 || samePosition || depth(data) >= depth(preferred) || generation(preferred) != generation) {
+            //Keep a best move we already know if this search didn't find one
+            if (samePosition && move < 0)
+                data = withMove(data, move(preferred));
+            write(bucket, key, data);
+        } else {
+            write(bucket + 2, key, data);
+        }
+        stores.increment();
+    }
+
+    private void write(int slot, long key, long data) {
+        table[slot] = key ^ data;
+        table[slot + 1] = data;
+    }
+
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & mask) * BUCKET_LONGS;
+    }
+
+    /**
+     * Starts a search in a round of the game. Entries from earlier rounds stay usable, but are the first to be
+     * replaced; entries from this round, including those of other players' searches in it, are not.
+     *
+     * @param round the round the search is in.
+     */
+    public void newSearch(int round) {
+        generation = round & 0x3F;
+    }
+
+    /**
+     * Empties the table and resets its counters. Only the table's one user may do this, while nothing is
+     * searching with it.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+        stores.reset();
+    }
+
+    private static long pack(int depth, int bound, double score, int move, int generation) {
+        long data = Float.floatToRawIntBits((float) score) & 0xFFFFFFFFL;
+        data |= (long) (Math.max(0, Math.min(depth, 0xFF))) << 32;
+        data |= (long) bound << 40;
+        data |= (long) ((move + 1) & 0xFFFF) << 42;
+        data |= (long) generation << 58;
+        return data;
+    }
+
+    private static long withMove(long data, int move) {
+        return (data & ~(0xFFFFL << 42)) | ((long) ((move + 1) & 0xFFFF) << 42);
+    }
+
+    public static double score(long data) {
+        return Float.intBitsToFloat((int) data);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 40) & 0x3;
+    }
+
+    /**
+     * Returns the best move stored in an entry.
+     *
+     * @param data the packed entry data.
+     * @return the index of the best move, or -1 if there is none.
+     */
+    public static int move(long data) {
+        return ((int) (data >>> 42) & 0xFFFF) - 1;
+    }
+
+    private static int generation(long data) {
+        return (int) (data >>> 58) & 0x3F;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Returns the memory used by the table.
+     *
+     * @return the memory used by the table, in bytes.
+     */
+    public long getSizeInBytes() {
+        return (long) table.length * 8;
+    }
+
+    @Override
+    public String toString() {
+        return "TranspositionTable[" + (getSizeInBytes() >> 20) + "MB, hits=" + getHits() + ", misses=" + getMisses()
+                + ", collisions=" + getCollisions() + ", stores=" + getStores() + "]";
+    }
+}
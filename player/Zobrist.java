@@ -0,0 +1,82 @@
+package player;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random 64-bit keys for Zobrist hashing of Scotland Yard positions.
+ * A position's hash is the XOR of one key for every player's location, one key for every
+ * (player, ticket, count) triple, one for the round and one for the player to move, so a
+ * move only has to XOR out the keys it changes and XOR in the new ones.
+ * The keys come from a fixed seed, so hashes are the same from one run to the next.
+ */
+public final class Zobrist {
+
+    public static final int MAX_PLAYERS = 6;
+    public static final int MAX_NODE = 256;
+    public static final int MAX_TICKET_COUNT = 256;
+    public static final int MAX_ROUND = 32;
+
+    private static final long[] LOCATION = new long[MAX_PLAYERS * MAX_NODE];
+    private static final long[] TICKETS = new long[MAX_PLAYERS * PackedState.TICKETS.length * MAX_TICKET_COUNT];
+    private static final long[] ROUND = new long[MAX_ROUND];
+    private static final long[] SIDE = new long[MAX_PLAYERS];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5C07_1A4D_9A4DL);
+        fill(LOCATION, random);
+        fill(TICKETS, random);
+        fill(ROUND, random);
+        fill(SIDE, random);
+    }
+
+    private Zobrist() {
+    }
+
+    private static void fill(long[] keys, SplittableRandom random) {
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = random.nextLong();
+    }
+
+    /**
+     * Returns the key for a player standing on a node.
+     *
+     * @param player the index of the player in play order (Mr X is 0).
+     * @param node   the node the player is on.
+     * @return the key for a player standing on a node.
+     */
+    public static long location(int player, int node) {
+        return LOCATION[player * MAX_NODE + node];
+    }
+
+    /**
+     * Returns the key for a player holding a number of tickets of one type.
+     *
+     * @param player the index of the player in play order (Mr X is 0).
+     * @param ticket the index of the ticket type in PackedState.TICKETS.
+     * @param count  the number of tickets held.
+     * @return the key for a player holding a number of tickets of one type.
+     */
+    public static long tickets(int player, int ticket, int count) {
+        return TICKETS[(player * PackedState.TICKETS.length + ticket) * MAX_TICKET_COUNT + count];
+    }
+
+    /**
+     * Returns the key for the round number.
+     *
+     * @param round the round number.
+     * @return the key for the round number.
+     */
+    public static long round(int round) {
+        return ROUND[round];
+    }
+
+    /**
+     * Returns the key for the player whose turn it is.
+     *
+     * @param player the index of the player in play order (Mr X is 0).
+     * @return the key for the player whose turn it is.
+     */
+    public static long side(int player) {
+        return SIDE[player];
+    }
+}